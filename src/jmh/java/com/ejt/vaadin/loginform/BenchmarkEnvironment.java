@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.server.*;
+import com.vaadin.ui.UI;
+import com.vaadin.util.CurrentInstance;
+import org.mockito.Mockito;
+
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A mocked service with a locked session and an attached UI for benchmarks of the server-side login form.
+ */
+class BenchmarkEnvironment {
+
+    final VaadinService service;
+    final VaadinSession session;
+    final UI ui;
+
+    BenchmarkEnvironment() {
+        this(createService());
+    }
+
+    /**
+     * Creates an environment with a new session of the given service.
+     *
+     * @param service a service from {@link #createService()}
+     */
+    BenchmarkEnvironment(VaadinService service) {
+        this.service = service;
+        session = new BenchmarkSession(service);
+        VaadinService.setCurrent(service);
+        VaadinSession.setCurrent(session);
+        session.lock();
+
+        ui = new BenchmarkUi();
+        ui.setSession(session);
+        UI.setCurrent(ui);
+    }
+
+    static VaadinService createService() {
+        // stub only, so that calls during the measurement are not recorded
+        VaadinService service = Mockito.mock(VaadinService.class, Mockito.withSettings().stubOnly());
+        Mockito.when(service.getDeploymentConfiguration())
+                .thenReturn(new DefaultDeploymentConfiguration(BenchmarkEnvironment.class, new Properties()));
+        return service;
+    }
+
+    void close() {
+        session.unlock();
+        CurrentInstance.clearAll();
+    }
+
+    private static class BenchmarkSession extends VaadinSession {
+
+        private final Lock lock = new ReentrantLock();
+        private int connectorId;
+
+        private BenchmarkSession(VaadinService service) {
+            super(service);
+        }
+
+        @Override
+        public Lock getLockInstance() {
+            return lock;
+        }
+
+        @Override
+        public String createConnectorId(ClientConnector connector) {
+            return String.valueOf(connectorId++);
+        }
+    }
+
+    private static class BenchmarkUi extends UI {
+        @Override
+        protected void init(VaadinRequest request) {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.server.VaadinServletRequest;
+import org.mockito.Mockito;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hand-written request for benchmarks. All methods that are called by the login request handlers are overridden,
+ * so the wrapped request, which is a stub-only mock, is never called while a benchmark is measured.
+ */
+class BenchmarkRequest extends VaadinServletRequest {
+
+    private final String pathInfo;
+    private final String queryString;
+    private final Map<String, String> parameters = new HashMap<String, String>();
+
+    BenchmarkRequest(String pathInfo, String queryString) {
+        super(Mockito.mock(HttpServletRequest.class, Mockito.withSettings().stubOnly()), null);
+        this.pathInfo = pathInfo;
+        this.queryString = queryString;
+    }
+
+    BenchmarkRequest withParameter(String name, String value) {
+        parameters.put(name, value);
+        return this;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.server.VaadinServletResponse;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Hand-written response for benchmarks that discards the written bytes. All methods that are called by the login
+ * request handlers are overridden, so the wrapped response, which is a stub-only mock, is never called while a
+ * benchmark is measured. Like a servlet container, the response creates its writer once and encodes the written
+ * characters when the writer is flushed.
+ */
+class BenchmarkResponse extends VaadinServletResponse {
+
+    private final NullOutputStream outputStream = new NullOutputStream();
+    private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
+
+    BenchmarkResponse() {
+        super(Mockito.mock(HttpServletResponse.class, Mockito.withSettings().stubOnly()), null);
+    }
+
+    /**
+     * Completes the response like the container does after the request has been handled.
+     */
+    void complete() {
+        writer.flush();
+    }
+
+    /**
+     * Returns the number of bytes written since the response has been created.
+     *
+     * @return the number of bytes
+     */
+    long getWrittenBytes() {
+        return outputStream.count;
+    }
+
+    @Override
+    public void setContentType(String type) {
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    private static class NullOutputStream extends ServletOutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
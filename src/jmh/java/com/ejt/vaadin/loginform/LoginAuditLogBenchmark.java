@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.audit.AuditOutcome;
+import com.ejt.vaadin.loginform.audit.LoginAuditLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the audit log with several producer threads. Besides the attempts per time, the auxiliary counters
+ * report how many records per time have been accepted into the buffer and how many have been dropped.
+ * <p/>
+ * With {@link #record(RecordCounters)}, the producers flood the log, so the buffer is full most of the time and
+ * the accepted records per time are limited by the writer thread. This is the sustained rate at which records are
+ * written to the log file. With {@link #recordPaced(RecordCounters)}, each producer performs some work between two
+ * records, like a login. The dropped count shows whether the writer keeps up with that rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(4)
+@Fork(1)
+public class LoginAuditLogBenchmark {
+
+    /**
+     * The work between two records of a paced producer, in the units of {@link Blackhole#consumeCPU(long)}.
+     */
+    private static final long PACING_TOKENS = 1000;
+
+    private File directory;
+    private LoginAuditLog auditLog;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("login-audit", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        auditLog = new LoginAuditLog(directory);
+    }
+
+    @TearDown
+    public void tearDown() {
+        auditLog.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean record(RecordCounters counters) {
+        return counters.count(auditLog.record("user", "127.0.0.1", AuditOutcome.SUCCESS));
+    }
+
+    @Benchmark
+    public boolean recordPaced(RecordCounters counters) {
+        Blackhole.consumeCPU(PACING_TOKENS);
+        return counters.count(auditLog.record("user", "127.0.0.1", AuditOutcome.SUCCESS));
+    }
+
+    /**
+     * Records per time that have been accepted and dropped by each producer thread. JMH sums them up over all
+     * threads.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class RecordCounters {
+
+        public long accepted;
+        public long dropped;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            accepted = 0;
+            dropped = 0;
+        }
+
+        boolean count(boolean recorded) {
+            if (recorded) {
+                accepted++;
+            } else {
+                dropped++;
+            }
+            return recorded;
+        }
+    }
+}
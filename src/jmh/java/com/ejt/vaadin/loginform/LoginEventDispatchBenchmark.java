@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.ui.VerticalLayout;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the dispatch of a login event to a login listener. The complete login is measured once with a
+ * login listener that is called through the reflective event router and once with a {@link LoginStageHandler}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoginEventDispatchBenchmark {
+
+    private BenchmarkEnvironment environment;
+    private BenchmarkLoginForm form;
+    private BenchmarkLoginForm listenerForm;
+    private BenchmarkLoginForm stageHandlerForm;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        environment = new BenchmarkEnvironment();
+        form = new BenchmarkLoginForm();
+        form.addLoginListener(new LoginForm.LoginListener() {
+            @Override
+            public void onLogin(LoginForm.LoginEvent event) {
+                LoginEventDispatchBenchmark.this.blackhole.consume(event.getUserName());
+            }
+        });
+
+        listenerForm = new BenchmarkLoginForm();
+        listenerForm.addLoginListener(new LoginForm.LoginListener() {
+            @Override
+            public void onLogin(LoginForm.LoginEvent event) {
+                LoginEventDispatchBenchmark.this.blackhole.consume(event.getUserName());
+            }
+        });
+        stageHandlerForm = new BenchmarkLoginForm();
+        stageHandlerForm.addLoginStageHandler(LoginStage.POST_LOGIN, new LoginStageHandler() {
+            @Override
+            public void handleLogin(LoginContext context) {
+                LoginEventDispatchBenchmark.this.blackhole.consume(context.getUserName());
+            }
+        });
+
+        VerticalLayout layout = new VerticalLayout();
+        layout.addComponent(form);
+        layout.addComponent(listenerForm);
+        layout.addComponent(stageHandlerForm);
+        environment.ui.setContent(layout);
+        listenerForm.setLoginOnSubmit(true);
+        stageHandlerForm.setLoginOnSubmit(true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public void dispatchLoginEvent() {
+        form.fireLogin("user", "password");
+    }
+
+    @Benchmark
+    public void loginWithListener() {
+        listenerForm.loginOnSubmit(listenerForm.getSubmitToken(), "user", "password");
+    }
+
+    @Benchmark
+    public void loginWithStageHandler() {
+        stageHandlerForm.loginOnSubmit(stageHandlerForm.getSubmitToken(), "user", "password");
+    }
+
+    private static class BenchmarkLoginForm extends DefaultHorizontalLoginForm {
+        void fireLogin(String userName, String password) {
+            login(userName, password);
+        }
+
+        String getSubmitToken() {
+            return getState(false).submitToken;
+        }
+    }
+}
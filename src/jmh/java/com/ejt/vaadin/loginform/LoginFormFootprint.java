@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.VaadinService;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.HasComponents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the per-session cost of a login page with {@link LoginForm} and with {@link LiteLoginForm}: the retained
+ * heap of a session with the attached form, the number of bytes that are added to a replicated session and the size
+ * of the shared state of all connectors of the form, which makes up most of the UIDL payload of the initial
+ * response. Heap and serialized size are measured against sessions with an empty UI, so the overhead of the session
+ * and the UI is not included.
+ * <p/>
+ * Usage: {@code gradlew footprint [-PfootprintSessions=<number of sessions>]}
+ */
+public class LoginFormFootprint {
+
+    private static final int DEFAULT_SESSIONS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SESSIONS;
+        VaadinService service = BenchmarkEnvironment.createService();
+        List<FormFactory> factories = new ArrayList<FormFactory>();
+        factories.add(new FormFactory("DefaultHorizontalLoginForm") {
+            @Override
+            Component create() {
+                return new DefaultHorizontalLoginForm();
+            }
+        });
+        factories.add(new FormFactory("DefaultVerticalLoginForm") {
+            @Override
+            Component create() {
+                return new DefaultVerticalLoginForm();
+            }
+        });
+        factories.add(new FormFactory("LiteLoginForm") {
+            @Override
+            Component create() {
+                return new LiteLoginForm();
+            }
+        });
+
+        // warm up class loading and the caches of the state encoding
+        for (FormFactory factory : factories) {
+            createSessions(service, factory, 100);
+        }
+        double baseline = measureHeap(service, null, sessions);
+        int serializedBaseline = measureSerializedSize(service, null);
+
+        System.out.println(String.format(Locale.ENGLISH, "%-28s %10s %14s %14s %14s",
+                "form", "connectors", "heap/session", "serialized", "state payload"));
+        for (FormFactory factory : factories) {
+            double heapPerSession = measureHeap(service, factory, sessions) - baseline;
+            int serializedSize = measureSerializedSize(service, factory) - serializedBaseline;
+            BenchmarkEnvironment environment = new BenchmarkEnvironment(service);
+            try {
+                Component form = factory.create();
+                environment.ui.setContent(form);
+                int[] payload = new int[2];
+                measureState(form, payload);
+                System.out.println(String.format(Locale.ENGLISH, "%-28s %10d %12.0f B %12d B %12d B",
+                        factory.name, payload[0], heapPerSession, serializedSize, payload[1]));
+            } finally {
+                environment.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the retained heap per session with an attached form, or with an empty UI if the factory is null.
+     */
+    private static double measureHeap(VaadinService service, FormFactory factory, int sessions) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        collectGarbage(memory);
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        List<BenchmarkEnvironment> environments = createSessions(service, factory, sessions);
+        collectGarbage(memory);
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        if (environments.size() != sessions) {
+            throw new IllegalStateException();
+        }
+        return (heapAfter - heapBefore) / (double)sessions;
+    }
+
+    /**
+     * Returns the serialized size of a UI with an attached form, or of an empty UI if the factory is null. The UI
+     * references the session, so this is the size of the replicated session.
+     */
+    private static int measureSerializedSize(VaadinService service, FormFactory factory) throws IOException {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment(service);
+        try {
+            if (factory != null) {
+                environment.ui.setContent(factory.create());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(environment.ui);
+            out.close();
+            return bytes.size();
+        } finally {
+            environment.close();
+        }
+    }
+
+    private static List<BenchmarkEnvironment> createSessions(VaadinService service, FormFactory factory,
+                                                             int sessions) {
+        List<BenchmarkEnvironment> environments = new ArrayList<BenchmarkEnvironment>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            BenchmarkEnvironment environment = new BenchmarkEnvironment(service);
+            try {
+                if (factory != null) {
+                    environment.ui.setContent(factory.create());
+                }
+            } finally {
+                environment.close();
+            }
+            environments.add(environment);
+        }
+        return environments;
+    }
+
+    private static void collectGarbage(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+    }
+
+    /**
+     * Counts the connectors of a component tree and sums up the sizes of their encoded shared state.
+     */
+    private static void measureState(ClientConnector connector, int[] payload) {
+        payload[0]++;
+        payload[1] += connector.encodeState().toJson().length();
+        if (connector instanceof HasComponents) {
+            for (Component child : (HasComponents)connector) {
+                measureState(child, payload);
+            }
+        }
+    }
+
+    private abstract static class FormFactory {
+
+        private final String name;
+
+        private FormFactory(String name) {
+            this.name = name;
+        }
+
+        abstract Component create();
+    }
+}
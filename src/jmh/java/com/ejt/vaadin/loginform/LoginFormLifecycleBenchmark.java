@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.shared.LoginFormState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the creation, attachment and state encoding of login forms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoginFormLifecycleBenchmark {
+
+    private BenchmarkEnvironment environment;
+    private DefaultHorizontalLoginForm attachedForm;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        attachedForm = new DefaultHorizontalLoginForm();
+        environment.ui.setContent(attachedForm);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public DefaultHorizontalLoginForm attachAndDetach() {
+        DefaultHorizontalLoginForm form = new DefaultHorizontalLoginForm();
+        environment.ui.setContent(form);
+        environment.ui.setContent(attachedForm);
+        return form;
+    }
+
+    @Benchmark
+    public LoginFormState createState() {
+        return new LoginFormState();
+    }
+
+    @Benchmark
+    public Object encodeState() {
+        return attachedForm.encodeState();
+    }
+}
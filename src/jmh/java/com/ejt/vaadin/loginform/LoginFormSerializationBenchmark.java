@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.ui.VerticalLayout;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the serialization of attached login forms, as it happens for session replication.
+ * The serialized sizes per session are reported by {@link LoginFormFootprint}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoginFormSerializationBenchmark {
+
+    private BenchmarkEnvironment environment;
+    private DefaultHorizontalLoginForm loginForm;
+    private LiteLoginForm liteLoginForm;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        loginForm = new DefaultHorizontalLoginForm();
+        loginForm.addLoginListener(new NoOpLoginListener());
+        liteLoginForm = new LiteLoginForm();
+        liteLoginForm.addLoginListener(new NoOpLoginListener());
+        VerticalLayout layout = new VerticalLayout();
+        layout.addComponent(loginForm);
+        layout.addComponent(liteLoginForm);
+        environment.ui.setContent(layout);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public byte[] serializeLoginForm() throws IOException {
+        return serialize(loginForm);
+    }
+
+    @Benchmark
+    public byte[] serializeLiteLoginForm() throws IOException {
+        return serialize(liteLoginForm);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static class NoOpLoginListener implements LoginForm.LoginListener {
+        @Override
+        public void onLogin(LoginForm.LoginEvent event) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.metrics.LatencyHistogram;
+import com.ejt.vaadin.loginform.metrics.StripedCounter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Overhead of recording login metrics while all benchmark threads update the same counters and histograms.
+ * A single {@link AtomicLong} is measured as the baseline that the striped counter replaces. Run with
+ * {@code -t} to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(8)
+@Fork(1)
+public class LoginMetricsBenchmark {
+
+    private final StripedCounter stripedCounter = new StripedCounter();
+    private final AtomicLong atomicCounter = new AtomicLong();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @State(Scope.Thread)
+    public static class Latencies {
+        private final long[] values = new long[64];
+        private int index;
+
+        public Latencies() {
+            // spread the values over the buckets of the histogram
+            long nanos = 1000;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = nanos;
+                nanos = nanos < TimeUnit.SECONDS.toNanos(10) ? nanos * 3 : 1000;
+            }
+        }
+
+        long next() {
+            index = (index + 1) & (values.length - 1);
+            return values[index];
+        }
+    }
+
+    @Benchmark
+    public void stripedCounterIncrement() {
+        stripedCounter.increment();
+    }
+
+    @Benchmark
+    public long atomicCounterIncrement() {
+        return atomicCounter.incrementAndGet();
+    }
+
+    @Benchmark
+    public void histogramRecord(Latencies latencies) {
+        histogram.record(latencies.next());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import com.vaadin.server.RequestHandler;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the session request handler of the dummy POST request with matching and non-matching paths.
+ * The pre-encoded response is compared with the previous handler, which wrote the response with the
+ * {@link PrintWriter} of the response, and with the fast path of {@link LoginFormServlet}, which answers the request
+ * before a session is accessed. Requests and responses are hand-written stubs, so that no mocking framework is
+ * measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoginRequestHandlerBenchmark {
+
+    private static final RequestHandler PRINT_WRITER_REQUEST_HANDLER = new PrintWriterRequestHandler();
+
+    private BenchmarkEnvironment environment;
+    private BenchmarkRequest loginRequest;
+    private BenchmarkRequest otherRequest;
+    private BenchmarkResponse response;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        loginRequest = new BenchmarkRequest(LoginFormConnector.LOGIN_URL, null);
+        otherRequest = new BenchmarkRequest("/UIDL/", null);
+        response = new BenchmarkResponse();
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public boolean matchingPath() throws IOException {
+        return LoginFormSupport.REQUEST_HANDLER.handleRequest(environment.session, loginRequest, response);
+    }
+
+    @Benchmark
+    public boolean nonMatchingPath() throws IOException {
+        return LoginFormSupport.REQUEST_HANDLER.handleRequest(environment.session, otherRequest, response);
+    }
+
+    @Benchmark
+    public boolean matchingPathWithPrintWriter() throws IOException {
+        boolean handled = PRINT_WRITER_REQUEST_HANDLER.handleRequest(environment.session, loginRequest, response);
+        // the container flushes the writer and encodes the characters after the handler has returned
+        response.complete();
+        return handled;
+    }
+
+    @Benchmark
+    public boolean servletFastPath() throws IOException {
+        if (LoginFormSupport.isDummyLoginRequest(loginRequest.getPathInfo(), loginRequest.getQueryString())) {
+            LoginFormSupport.writeLoginResponse(response);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The request handler before the response was pre-encoded.
+     */
+    private static class PrintWriterRequestHandler implements RequestHandler {
+        @Override
+        public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+            if (LoginFormConnector.LOGIN_URL.equals(request.getPathInfo())) {
+                response.setContentType("text/html; charset=utf-8");
+                response.setCacheTime(-1);
+                PrintWriter writer = response.getWriter();
+                writer.append("<html>Success</html>");
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.password.PasswordVerifier;
+import com.ejt.vaadin.loginform.password.Pbkdf2Algorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of password verifications with a calibrated cost factor, measured with more concurrent logins than
+ * cores. The calibrated cost is printed when the benchmark is set up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(16)
+@Fork(1)
+public class PasswordVerifierBenchmark {
+
+    private PasswordVerifier verifier;
+    private String storedHash;
+
+    @Setup
+    public void setUp() {
+        verifier = new PasswordVerifier(new Pbkdf2Algorithm(), PasswordVerifier.DEFAULT_TARGET_MILLIS);
+        storedHash = verifier.hash("password");
+        System.out.println();
+        System.out.println("Calibrated cost: " + verifier.getCost());
+    }
+
+    @TearDown
+    public void tearDown() {
+        verifier.shutdown();
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return verifier.verify("password", storedHash).matches();
+    }
+
+    @Benchmark
+    public boolean verifyUnknownUser() {
+        return verifier.verify("password", null).matches();
+    }
+}
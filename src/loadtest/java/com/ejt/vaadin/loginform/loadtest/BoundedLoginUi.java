@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.loadtest;
+
+import com.ejt.vaadin.loginform.AuthenticationResult;
+import com.ejt.vaadin.loginform.Authenticator;
+import com.ejt.vaadin.loginform.BoundedLoginExecutor;
+import com.ejt.vaadin.loginform.DefaultVerticalLoginForm;
+import com.vaadin.annotations.Theme;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.UI;
+
+/**
+ * UI for the load test with a {@link BoundedLoginExecutor} and an authenticator that simulates a slow backend.
+ * All sessions share the executor, so logins beyond its capacity are rejected and retried by the virtual clients
+ * with the same back-off as the browser.
+ */
+@Theme("valo")
+public class BoundedLoginUi extends UI {
+
+    static final int BUSY_RETRY_DELAY = 100;
+
+    private static volatile BoundedLoginExecutor executor;
+    private static volatile long authenticationMillis;
+
+    private static final Authenticator AUTHENTICATOR = new Authenticator() {
+        @Override
+        public AuthenticationResult authenticate(String userName, String password) {
+            try {
+                Thread.sleep(authenticationMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return AuthenticationResult.success(userName);
+        }
+    };
+
+    /**
+     * Replaces the shared executor.
+     *
+     * @param threads              the number of authentication threads
+     * @param maxQueueDepth        the maximum number of waiting logins
+     * @param authenticationMillis the simulated time of a single authentication
+     * @return the new executor
+     */
+    static BoundedLoginExecutor configure(int threads, int maxQueueDepth, long authenticationMillis) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        BoundedLoginUi.authenticationMillis = authenticationMillis;
+        executor = new BoundedLoginExecutor(threads, maxQueueDepth);
+        return executor;
+    }
+
+    @Override
+    protected void init(VaadinRequest request) {
+        DefaultVerticalLoginForm loginForm = new DefaultVerticalLoginForm();
+        loginForm.setAuthenticator(AUTHENTICATOR);
+        loginForm.setLoginExecutor(executor);
+        loginForm.setBusyRetryDelay(BUSY_RETRY_DELAY);
+        setContent(loginForm);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.loadtest;
+
+import com.ejt.vaadin.loginform.BoundedLoginExecutor;
+import com.ejt.vaadin.loginform.LoginFormServlet;
+import com.ejt.vaadin.loginform.metrics.LatencyHistogram;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the complete login flow. Starts the test UI with {@link LoginFormServlet} in an embedded
+ * Jetty with the same configuration as web/WEB-INF/web.xml and runs virtual clients at increasing concurrency levels.
+ * For each level, the throughput, the latency percentiles of a complete login and the heap per session are reported.
+ * The run stops when the throughput no longer grows, which is reported as the saturation point.
+ * <p/>
+ * With the argument {@code bounded}, the test runs {@link BoundedLoginUi} instead, where all logins share a
+ * {@link BoundedLoginExecutor} and a slow authenticator. All levels are run to show how the form degrades beyond the
+ * capacity of the executor: the throughput should stay at the capacity while rejected logins are retried by the
+ * clients, instead of collapsing under an unbounded queue.
+ * <p/>
+ * Usage: {@code gradlew loadtest [-PloadtestArgs="[bounded] <seconds per level> <concurrency levels...>"]}
+ */
+public class LoginLoadTest {
+
+    private static final double SATURATION_GAIN = 1.1;
+    private static final int BOUNDED_THREADS = 8;
+    private static final int BOUNDED_QUEUE_DEPTH = 32;
+    private static final long BOUNDED_AUTHENTICATION_MILLIS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int firstArg = 0;
+        boolean bounded = args.length > 0 && "bounded".equals(args[0]);
+        if (bounded) {
+            firstArg++;
+        }
+        int secondsPerLevel = args.length > firstArg ? Integer.parseInt(args[firstArg]) : 20;
+        List<Integer> levels = new ArrayList<Integer>();
+        for (int i = firstArg + 1; i < args.length; i++) {
+            levels.add(Integer.parseInt(args[i]));
+        }
+        if (levels.isEmpty()) {
+            for (int level = 16; level <= 4096; level *= 2) {
+                levels.add(level);
+            }
+        }
+
+        BoundedLoginExecutor executor = null;
+        if (bounded) {
+            executor = BoundedLoginUi.configure(BOUNDED_THREADS, BOUNDED_QUEUE_DEPTH, BOUNDED_AUTHENTICATION_MILLIS);
+            System.out.println(String.format(Locale.ENGLISH,
+                    "Bounded executor with %d threads, queue depth %d and %d ms per authentication: " +
+                            "capacity %.1f logins/s", BOUNDED_THREADS, BOUNDED_QUEUE_DEPTH,
+                    BOUNDED_AUTHENTICATION_MILLIS, BOUNDED_THREADS * 1000.0 / BOUNDED_AUTHENTICATION_MILLIS));
+        }
+        Server server = startServer(bounded ? BoundedLoginUi.class.getName() : "TestUi");
+        try {
+            String baseUrl = "http://localhost:" + ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+            new VirtualClient(baseUrl, 0, bounded).login(); // warm up class loading and the servlet
+
+            System.out.println("clients  logins/s    p50 ms    p90 ms    p99 ms    max ms  errors  heap/session KB" +
+                    "  retries/login  gave up  rejected");
+            double previousThroughput = 0;
+            int clientNumber = 1;
+            for (int level : levels) {
+                long rejectedBefore = executor != null ? executor.getRejectedCount() : 0;
+                LevelResult result = runLevel(baseUrl, bounded, level, secondsPerLevel, clientNumber);
+                clientNumber += level;
+                long rejected = executor != null ? executor.getRejectedCount() - rejectedBefore : 0;
+                System.out.println(result.format(level, rejected));
+                // with a bounded executor, the levels beyond the saturation point show the degradation
+                if (!bounded && previousThroughput > 0 && result.throughput < previousThroughput * SATURATION_GAIN) {
+                    System.out.println("Saturated at " + level + " concurrent clients with " +
+                            String.format(Locale.ENGLISH, "%.1f", previousThroughput) + " logins/s at the previous level");
+                    break;
+                }
+                previousThroughput = result.throughput;
+            }
+        } finally {
+            server.stop();
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static Server startServer(String uiClassName) throws Exception {
+        Server server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/");
+        ServletHolder holder = new ServletHolder(new LoginFormServlet());
+        holder.setInitParameter("UI", uiClassName);
+        holder.setInitParameter("widgetset", "com.ejt.vaadin.loginform.WidgetSet");
+        holder.setInitParameter("productionMode", "true");
+        context.addServlet(holder, "/*");
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    private static LevelResult runLevel(final String baseUrl, final boolean awaitOutcome, int clients, int seconds,
+                                        final int firstClientNumber) throws InterruptedException {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong logins = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong gaveUp = new AtomicLong();
+        final AtomicInteger nextClientNumber = new AtomicInteger(firstClientNumber);
+        final long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        final CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < endTime) {
+                            VirtualClient client =
+                                    new VirtualClient(baseUrl, nextClientNumber.getAndIncrement(), awaitOutcome);
+                            long startTime = System.nanoTime();
+                            try {
+                                retries.addAndGet(client.login());
+                                latency.recordSince(startTime);
+                                logins.incrementAndGet();
+                            } catch (VirtualClient.BusyException e) {
+                                gaveUp.incrementAndGet();
+                            } catch (Exception e) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        long sessions = logins.get() + errors.get() + gaveUp.get();
+
+        return new LevelResult(latency.getSnapshot(), (double)logins.get() / seconds, errors.get(),
+                sessions == 0 ? 0 : (heapAfter - heapBefore) / (double)sessions,
+                logins.get() == 0 ? 0 : (double)retries.get() / logins.get(), gaveUp.get());
+    }
+
+    private static class LevelResult {
+
+        private final LatencyHistogram.Snapshot latency;
+        private final double throughput;
+        private final long errors;
+        private final double heapPerSession;
+        private final double retriesPerLogin;
+        private final long gaveUp;
+
+        private LevelResult(LatencyHistogram.Snapshot latency, double throughput, long errors, double heapPerSession,
+                            double retriesPerLogin, long gaveUp) {
+            this.latency = latency;
+            this.throughput = throughput;
+            this.errors = errors;
+            this.heapPerSession = heapPerSession;
+            this.retriesPerLogin = retriesPerLogin;
+            this.gaveUp = gaveUp;
+        }
+
+        String format(int clients, long rejected) {
+            return String.format(Locale.ENGLISH, "%7d %9.1f %9.1f %9.1f %9.1f %9.1f %7d %16.1f %14.2f %8d %9d",
+                    clients, throughput,
+                    latency.getPercentile(50, TimeUnit.MILLISECONDS),
+                    latency.getPercentile(90, TimeUnit.MILLISECONDS),
+                    latency.getPercentile(99, TimeUnit.MILLISECONDS),
+                    latency.getMax(TimeUnit.MILLISECONDS),
+                    errors, heapPerSession / 1024, retriesPerLogin, gaveUp, rejected);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.loadtest;
+
+import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+
+/**
+ * Simulates a browser that performs a complete login with the Vaadin client protocol: the bootstrap request,
+ * the browser details request that creates the UI, the dummy POST request of the login form and the UIDL request
+ * with the field values and the submitCompleted RPC.
+ * <p/>
+ * If the client waits for the login outcome, it retries rejected logins with the back-off of the browser and polls
+ * for the result of asynchronous logins.
+ */
+class VirtualClient {
+
+    private static final String UIDL_PREFIX = "for(;;);";
+    private static final String LOGIN_FORM_RPC = "com.ejt.vaadin.loginform.shared.LoginFormRpc";
+    private static final String LOGIN_FORM_CLIENT_RPC = "com.ejt.vaadin.loginform.shared.LoginFormClientRpc";
+    private static final int POLL_INTERVAL_MILLIS = 10;
+    private static final int DEFAULT_BUSY_RETRY_DELAY = 1000;
+
+    private final String baseUrl;
+    private final int clientNumber;
+    private final boolean awaitOutcome;
+
+    private String sessionCookie;
+    private String csrfToken;
+    private int uiId;
+    private int syncId;
+
+    VirtualClient(String baseUrl, int clientNumber) {
+        this(baseUrl, clientNumber, false);
+    }
+
+    /**
+     * Creates a client.
+     *
+     * @param baseUrl      the URL of the servlet
+     * @param clientNumber the number of the client, used for the window name and the credentials
+     * @param awaitOutcome {@code true} if the login form sends the outcome of the login and the client should
+     *                     wait for it. Otherwise, the login is complete with the response to the submitCompleted RPC.
+     */
+    VirtualClient(String baseUrl, int clientNumber, boolean awaitOutcome) {
+        this.baseUrl = baseUrl;
+        this.clientNumber = clientNumber;
+        this.awaitOutcome = awaitOutcome;
+    }
+
+    /**
+     * Performs a complete login in a new session.
+     *
+     * @return the number of times the login was rejected because the server was busy
+     * @throws IOException if a request fails, the server response cannot be interpreted or the login did not succeed
+     */
+    int login() throws IOException {
+        sessionCookie = null;
+        request("GET", "/", null, null);
+
+        String browserDetails = "v-browserDetails=1&theme=valo&v-appId=ROOT&v-sh=900&v-sw=1440&v-cw=1440&v-ch=800" +
+                "&v-curdate=" + System.currentTimeMillis() + "&v-tzo=0&v-dstd=0&v-rtzo=0&v-dston=false&v-vw=1440&v-vh=0" +
+                "&v-loc=" + URLEncoder.encode(baseUrl + "/", "UTF-8") + "&v-wn=ROOT-" + clientNumber;
+        JsonObject initResponse = Json.parse(request("POST", "/?" + browserDetails, null, null));
+        uiId = (int)initResponse.getNumber("v-uiId");
+        JsonObject uidl = Json.parse(initResponse.getString("uidl"));
+        updateSyncState(uidl);
+
+        LoginFormConnectors form = LoginFormConnectors.find(uidl.getObject("state"));
+        String userName = "user" + clientNumber;
+        String password = "secret" + clientNumber;
+
+        request("POST", LoginFormConnector.LOGIN_URL,
+                LoginFormConnector.USER_NAME_PARAMETER + "=" + URLEncoder.encode(userName, "UTF-8") + "&" +
+                LoginFormConnector.PASSWORD_PARAMETER + "=" + URLEncoder.encode(password, "UTF-8"),
+                "application/x-www-form-urlencoded");
+
+        JsonArray rpc = Json.createArray();
+        rpc.set(0, variableChange(form.userNameFieldId, userName));
+        rpc.set(1, variableChange(form.passwordFieldId, password));
+        rpc.set(2, invocation(form.formId, "submitCompleted"));
+        JsonObject response = sendUidl(rpc);
+        return awaitOutcome ? awaitOutcome(form, response) : 0;
+    }
+
+    private int awaitOutcome(LoginFormConnectors form, JsonObject response) throws IOException {
+        int busyCount = 0;
+        int rejections = 0;
+        while (true) {
+            String outcome = getLoginOutcome(response, form.formId);
+            if ("SUCCESS".equals(outcome)) {
+                return rejections;
+            } else if ("FAILURE".equals(outcome)) {
+                throw new IOException("Login failed");
+            }
+            JsonObject state = response.hasKey("state") ? response.getObject("state") : null;
+            if (state != null && state.hasKey(form.formId) && state.getObject(form.formId).hasKey("busyCount")) {
+                busyCount = (int)state.getObject(form.formId).getNumber("busyCount");
+                rejections = Math.max(rejections, busyCount);
+            }
+            if (outcome == null && busyCount > 0) {
+                if (busyCount > LoginFormConnector.MAX_BUSY_RETRIES) {
+                    throw new BusyException(busyCount);
+                }
+                // the same back-off as in LoginFormConnector
+                sleep((long)(form.busyRetryDelay * Math.pow(2, busyCount - 1) * (0.5 + Math.random())));
+                response = sendUidl(singleInvocation(form.formId, "loginRetried"));
+            } else {
+                sleep(POLL_INTERVAL_MILLIS);
+                response = sendUidl(singleInvocation(form.formId, "resultRequested"));
+            }
+        }
+    }
+
+    private static String getLoginOutcome(JsonObject uidl, String formId) {
+        if (!uidl.hasKey("rpc")) {
+            return null;
+        }
+        String outcome = null;
+        JsonArray calls = uidl.getArray("rpc");
+        for (int i = 0; i < calls.length(); i++) {
+            JsonArray call = calls.getArray(i);
+            if (formId.equals(call.getString(0)) && LOGIN_FORM_CLIENT_RPC.equals(call.getString(1)) &&
+                    "loginOutcome".equals(call.getString(2))) {
+                outcome = call.getArray(3).getString(0);
+            }
+        }
+        return "PENDING".equals(outcome) ? null : outcome;
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private JsonObject sendUidl(JsonArray rpc) throws IOException {
+        JsonObject payload = Json.createObject();
+        payload.put("csrfToken", csrfToken);
+        payload.put("rpc", rpc);
+        payload.put("syncId", syncId);
+        String response = request("POST", "/UIDL/?v-uiId=" + uiId, payload.toJson(), "application/json; charset=UTF-8");
+        if (!response.startsWith(UIDL_PREFIX)) {
+            throw new IOException("Unexpected UIDL response: " + response);
+        }
+        JsonArray messages = Json.parse(response.substring(UIDL_PREFIX.length()));
+        JsonObject uidl = messages.getObject(0);
+        updateSyncState(uidl);
+        return uidl;
+    }
+
+    private void updateSyncState(JsonObject uidl) {
+        if (uidl.hasKey("Vaadin-Security-Key")) {
+            csrfToken = uidl.getString("Vaadin-Security-Key");
+        }
+        if (uidl.hasKey("syncId")) {
+            syncId = (int)uidl.getNumber("syncId");
+        }
+    }
+
+    private static JsonArray variableChange(String connectorId, String value) {
+        JsonArray typedValue = Json.createArray();
+        typedValue.set(0, "s");
+        typedValue.set(1, value);
+        JsonArray parameters = Json.createArray();
+        parameters.set(0, "text");
+        parameters.set(1, typedValue);
+        JsonArray invocation = Json.createArray();
+        invocation.set(0, connectorId);
+        invocation.set(1, "v");
+        invocation.set(2, "v");
+        invocation.set(3, parameters);
+        return invocation;
+    }
+
+    private static JsonArray singleInvocation(String connectorId, String method) {
+        JsonArray rpc = Json.createArray();
+        rpc.set(0, invocation(connectorId, method));
+        return rpc;
+    }
+
+    private static JsonArray invocation(String connectorId, String method) {
+        JsonArray invocation = Json.createArray();
+        invocation.set(0, connectorId);
+        invocation.set(1, LOGIN_FORM_RPC);
+        invocation.set(2, method);
+        invocation.set(3, Json.createArray());
+        return invocation;
+    }
+
+    private String request(String method, String path, String body, String contentType) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setInstanceFollowRedirects(false);
+        if (sessionCookie != null) {
+            connection.setRequestProperty("Cookie", sessionCookie);
+        }
+        if ("POST".equals(method)) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType != null ? contentType : "text/plain");
+            OutputStream out = connection.getOutputStream();
+            try {
+                if (body != null) {
+                    out.write(body.getBytes("UTF-8"));
+                }
+            } finally {
+                out.close();
+            }
+        }
+        int status = connection.getResponseCode();
+        List<String> cookies = connection.getHeaderFields().get("Set-Cookie");
+        if (cookies != null) {
+            for (String cookie : cookies) {
+                if (cookie.startsWith("JSESSIONID=")) {
+                    sessionCookie = cookie.substring(0, cookie.indexOf(';') > 0 ? cookie.indexOf(';') : cookie.length());
+                }
+            }
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException(method + " " + path + " failed with status " + status);
+        }
+        return readFully(connection.getInputStream());
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The connector ids of the first login form in the initial UIDL response.
+     */
+    private static class LoginFormConnectors {
+
+        private final String formId;
+        private final String userNameFieldId;
+        private final String passwordFieldId;
+        private final int busyRetryDelay;
+
+        private LoginFormConnectors(String formId, String userNameFieldId, String passwordFieldId,
+                                    int busyRetryDelay) {
+            this.formId = formId;
+            this.userNameFieldId = userNameFieldId;
+            this.passwordFieldId = passwordFieldId;
+            this.busyRetryDelay = busyRetryDelay;
+        }
+
+        static LoginFormConnectors find(JsonObject states) throws IOException {
+            String[] connectorIds = states.keys();
+            for (String connectorId : connectorIds) {
+                JsonValue value = states.get(connectorId);
+                if (value instanceof JsonObject) {
+                    JsonObject state = (JsonObject)value;
+                    if (state.hasKey("userNameFieldConnector") && state.hasKey("passwordFieldConnector")) {
+                        return new LoginFormConnectors(connectorId,
+                                state.getString("userNameFieldConnector"), state.getString("passwordFieldConnector"),
+                                state.hasKey("busyRetryDelay") ?
+                                        (int)state.getNumber("busyRetryDelay") : DEFAULT_BUSY_RETRY_DELAY);
+                    }
+                }
+            }
+            throw new IOException("No login form found in the initial UIDL response");
+        }
+    }
+
+    /**
+     * Thrown if the server was still busy after the maximum number of retries, so that the browser would have
+     * given up.
+     */
+    static class BusyException extends IOException {
+
+        BusyException(int busyCount) {
+            super("Login rejected " + busyCount + " times");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+/**
+ * A {@link LoginStageHandler} that is called on the login executor without holding the session lock, so it must
+ * not access any components. The following handlers are called after it has completed. If no login executor has
+ * been set with {@link LoginForm#setLoginExecutor(java.util.concurrent.Executor)}, the handler is called
+ * synchronously.
+ */
+public interface AsyncLoginStageHandler extends LoginStageHandler {
+}
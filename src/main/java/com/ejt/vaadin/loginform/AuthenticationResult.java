@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import java.io.Serializable;
+
+/**
+ * The result of an {@link Authenticator}.
+ */
+public final class AuthenticationResult implements Serializable {
+
+    private static final AuthenticationResult FAILURE = new AuthenticationResult(false, null, null);
+
+    private final boolean success;
+    private final Serializable principal;
+    private final String message;
+
+    private AuthenticationResult(boolean success, Serializable principal, String message) {
+        this.success = success;
+        this.principal = principal;
+        this.message = message;
+    }
+
+    /**
+     * Creates a successful result.
+     *
+     * @param principal the authenticated principal, for example a user object or the user name
+     * @return the result
+     */
+    public static AuthenticationResult success(Serializable principal) {
+        return new AuthenticationResult(true, principal, null);
+    }
+
+    /**
+     * Returns a failed result without a message.
+     *
+     * @return the result
+     */
+    public static AuthenticationResult failure() {
+        return FAILURE;
+    }
+
+    /**
+     * Creates a failed result.
+     *
+     * @param message a message that can be shown to the user
+     * @return the result
+     */
+    public static AuthenticationResult failure(String message) {
+        return new AuthenticationResult(false, null, message);
+    }
+
+    /**
+     * Returns whether the credentials have been verified successfully.
+     *
+     * @return {@code true} for a successful authentication
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the principal of a successful authentication.
+     *
+     * @return the principal or {@code null} for a failed authentication
+     */
+    public Serializable getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * Returns the message of a failed authentication.
+     *
+     * @return the message or {@code null}
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    private Object readResolve() {
+        return !success && principal == null && message == null ? FAILURE : this;
+    }
+
+    @Override
+    public String toString() {
+        return success ? "AuthenticationResult[success, " + principal + "]" : "AuthenticationResult[failure, " + message + "]";
+    }
+}
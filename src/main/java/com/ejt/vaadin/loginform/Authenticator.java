@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+/**
+ * Verifies the credentials that have been entered in a login form. Set with
+ * {@link LoginForm#setAuthenticator(Authenticator)}. The result is available from
+ * {@link LoginForm.LoginEvent#getAuthenticationResult()}.
+ * <p/>
+ * An authenticator is usually shared by all login forms of an application, so implementations must be thread safe.
+ * If a login executor has been set on the login form, the authenticator is called without holding the session lock.
+ */
+public interface Authenticator {
+
+    /**
+     * Verifies the credentials.
+     *
+     * @param userName the user name
+     * @param password the password
+     * @return the result, never {@code null}
+     */
+    AuthenticationResult authenticate(String userName, String password);
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.metrics.LatencyHistogram;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for logins with a fixed number of threads and a bounded queue. Pass it to
+ * {@link LoginForm#setLoginExecutor(Executor)} to limit the number of concurrent authentications.
+ * <p/>
+ * When all threads are busy and the queue is full, a login is either rejected immediately or after waiting for
+ * a free queue slot up to the configured timeout. Rejected logins are reported to the client, which retries them
+ * with a randomized exponential back-off.
+ */
+public class BoundedLoginExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+    private final long queueTimeoutNanos;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final LatencyHistogram queueWaitTime = new LatencyHistogram();
+
+    /**
+     * Creates an executor that rejects logins immediately when the queue is full.
+     *
+     * @param threads       the number of authentication threads
+     * @param maxQueueDepth the maximum number of logins waiting for a thread
+     */
+    public BoundedLoginExecutor(int threads, int maxQueueDepth) {
+        this(threads, maxQueueDepth, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates an executor.
+     *
+     * @param threads       the number of authentication threads
+     * @param maxQueueDepth the maximum number of logins waiting for a thread
+     * @param queueTimeout  the maximum time to wait for a free queue slot. Note that the requesting thread holds
+     *                      the session lock while it waits, so this should be short.
+     * @param unit          the time unit of the queue timeout
+     */
+    public BoundedLoginExecutor(int threads, int maxQueueDepth, long queueTimeout, TimeUnit unit) {
+        if (threads < 1 || maxQueueDepth < 1) {
+            throw new IllegalArgumentException("threads and maxQueueDepth must be positive");
+        }
+        queueTimeoutNanos = unit.toNanos(queueTimeout);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueueDepth), new LoginThreadFactory(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        offerWithTimeout(runnable, executor);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executes a login or throws a {@link RejectedExecutionException} if the executor is saturated.
+     *
+     * @param command the login
+     */
+    @Override
+    public void execute(final Runnable command) {
+        final long enqueueTime = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queueWaitTime.recordSince(enqueueTime);
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of threads that are currently processing logins.
+     *
+     * @return the number of active threads
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of logins that are waiting for a thread.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of logins that have been rejected because the executor was saturated.
+     *
+     * @return the number of rejected logins
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the histogram of the time that logins waited in the queue.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    /**
+     * Stops accepting new logins. Queued logins are still processed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void offerWithTimeout(Runnable runnable, ThreadPoolExecutor executor) {
+        if (!executor.isShutdown() && queueTimeoutNanos > 0) {
+            try {
+                if (executor.getQueue().offer(runnable, queueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        rejectedCount.incrementAndGet();
+        throw new RejectedExecutionException("Login executor is saturated");
+    }
+
+    private static class LoginThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "login-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Authenticator that caches the results of another authenticator for repeated logins with the same credentials,
+ * for example after a tab has been reloaded or a session has timed out.
+ * <p/>
+ * The cache is bounded by size and time. The least recently used entry is evicted when the cache is full
+ * and entries expire after the configured time to live. Credentials are never stored in plain text,
+ * the cache keys are SHA-256 digests of the user name and the password with a random salt that is created
+ * for each instance.
+ * <p/>
+ * Note that a cached successful result remains valid until it expires, even if the password is changed
+ * in the meantime. Call {@link #invalidateAll()} if that is not acceptable.
+ */
+public class CachingAuthenticator implements Authenticator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Authenticator delegate;
+    private final long timeToLiveNanos;
+    private final boolean cacheFailures;
+    private final byte[] salt = new byte[16];
+    private final Map<Key, Entry> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a caching authenticator that caches successful results only.
+     *
+     * @param delegate   the authenticator that verifies the credentials
+     * @param maxEntries the maximum number of cached results
+     * @param timeToLive the time to live of a cached result
+     * @param unit       the time unit of the time to live
+     */
+    public CachingAuthenticator(Authenticator delegate, int maxEntries, long timeToLive, TimeUnit unit) {
+        this(delegate, maxEntries, timeToLive, unit, false);
+    }
+
+    /**
+     * Creates a caching authenticator.
+     *
+     * @param delegate      the authenticator that verifies the credentials
+     * @param maxEntries    the maximum number of cached results
+     * @param timeToLive    the time to live of a cached result
+     * @param unit          the time unit of the time to live
+     * @param cacheFailures whether failed authentications should be cached as well
+     */
+    public CachingAuthenticator(Authenticator delegate, final int maxEntries, long timeToLive, TimeUnit unit, boolean cacheFailures) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.delegate = delegate;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.cacheFailures = cacheFailures;
+        new SecureRandom().nextBytes(salt);
+        cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public AuthenticationResult authenticate(String userName, String password) {
+        Key key = createKey(userName, password);
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+            if (entry != null && now - entry.created > timeToLiveNanos) {
+                cache.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.result;
+        }
+
+        misses.incrementAndGet();
+        AuthenticationResult result = delegate.authenticate(userName, password);
+        if (result != null && (result.isSuccess() || cacheFailures)) {
+            synchronized (cache) {
+                cache.put(key, new Entry(result, now));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the ratio of authentications that have been answered from the cache.
+     *
+     * @return the hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private Key createKey(String userName, String password) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(salt);
+        digest.update(String.valueOf(userName).getBytes(UTF_8));
+        digest.update((byte)0);
+        digest.update(String.valueOf(password).getBytes(UTF_8));
+        return new Key(digest.digest());
+    }
+
+    private static class Key {
+
+        private final byte[] digest;
+        private final int hashCode;
+
+        private Key(byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(digest, ((Key)o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Entry {
+
+        private final AuthenticationResult result;
+        private final long created;
+
+        private Entry(AuthenticationResult result, long created) {
+            this.result = result;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.audit.AuditOutcome;
+import com.ejt.vaadin.loginform.audit.LoginAuditLog;
+import com.ejt.vaadin.loginform.metrics.LoginMetrics;
+import com.ejt.vaadin.loginform.shared.LiteLoginFormRpc;
+import com.ejt.vaadin.loginform.shared.LiteLoginFormState;
+import com.ejt.vaadin.loginform.shared.LoginFieldValidation;
+import com.ejt.vaadin.loginform.shared.LoginFormClientRpc;
+import com.ejt.vaadin.loginform.shared.LoginOutcome;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.AbstractComponent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Lightweight login form for pages with many anonymous visitors. In contrast to {@link LoginForm}, the user name
+ * field, the password field and the login button are plain HTML elements that are rendered by the client.
+ * There are no server-side field components and no layout, the credentials are read from the POST request that
+ * triggers the password manager. With server push enabled, a login requires a single request.
+ * <p/>
+ * Login listeners, an {@link Authenticator}, a {@link LoginThrottle}, a {@link LoginAuditLog}, validation rules and
+ * a login executor are supported like in {@link LoginForm}. Login stage handlers and async login handlers are not
+ * supported.
+ */
+public class LiteLoginForm extends AbstractComponent implements LoginSubmitTarget {
+
+    private final LoginPipeline pipeline = new LitePipeline();
+
+    public LiteLoginForm() {
+        registerRpc(new LiteLoginFormRpcImpl());
+    }
+
+    @Override
+    protected LiteLoginFormState getState() {
+        return (LiteLoginFormState)super.getState();
+    }
+
+    @Override
+    protected LiteLoginFormState getState(boolean markAsDirty) {
+        return (LiteLoginFormState)super.getState(markAsDirty);
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        LoginFormSupport support = LoginFormSupport.install(VaadinService.getCurrent());
+        support.register(VaadinSession.getCurrent());
+        LiteLoginFormState state = getState(false);
+        if (state.submitToken == null) {
+            state = getState();
+            state.submitToken = LoginFormSupport.createToken();
+        }
+        LoginFormRegistry.get(getSession()).register(state.submitToken, this);
+        LoginMetrics.getInstance().formAttached();
+    }
+
+    @Override
+    public void detach() {
+        LoginMetrics.getInstance().formDetached();
+        LoginFormRegistry.get(getSession()).unregister(getState(false).submitToken, this);
+        super.detach();
+    }
+
+    /**
+     * You can override this method to handle the login directly without using the event mechanism.
+     * The login event will only be fired, if you call super.login(..) in your overriding method.
+     *
+     * @param userName       the user name
+     * @param password       the password
+     * @param authentication the result of the authenticator or {@code null} if no authenticator has been set
+     */
+    protected void login(String userName, String password, AuthenticationResult authentication) {
+        pipeline.fireLogin(new LoginForm.LoginEvent(this, userName, password, authentication, null));
+    }
+
+    /**
+     * Called instead of {@link #login(String, String, AuthenticationResult)} if a login attempt has been rejected
+     * by the login throttle. The default implementation notifies the client, which clears the password field.
+     *
+     * @param userName         the user name
+     * @param retryAfterMillis the time in milliseconds until the next attempt will be permitted
+     */
+    protected void loginThrottled(String userName, long retryAfterMillis) {
+        getRpcProxy(LoginFormClientRpc.class).loginThrottled((int)Math.min(retryAfterMillis, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Called if a login has been rejected by the login executor because it is saturated, for example by a
+     * {@link BoundedLoginExecutor} with a full queue. The default implementation sends {@link LoginOutcome#FAILURE},
+     * so that the user can submit the form again.
+     *
+     * @param userName the user name
+     */
+    protected void loginRejected(String userName) {
+        sendLoginOutcome(LoginOutcome.FAILURE, null);
+    }
+
+    /**
+     * Sends the outcome of a login to the client, which shows it with the style name of the outcome.
+     * If an {@link Authenticator} has been set, the outcome is sent automatically after the login listeners have
+     * been called. For {@link LoginOutcome#FAILURE}, the password field is cleared.
+     *
+     * @param outcome the outcome
+     * @param message a message for the user or {@code null}
+     */
+    public void sendLoginOutcome(LoginOutcome outcome, String message) {
+        getRpcProxy(LoginFormClientRpc.class).loginOutcome(outcome, message);
+    }
+
+    /**
+     * Tells the form that a login has succeeded. This is implied when an {@link Authenticator} reports a successful
+     * login. If the credentials are checked in a login listener, call it after a successful login, so that the audit
+     * log records {@link AuditOutcome#SUCCESS} instead of {@link AuditOutcome#UNVERIFIED}.
+     *
+     * @see LoginForm#loginSucceeded()
+     */
+    public void loginSucceeded() {
+        pipeline.confirmLogin();
+    }
+
+    @Override
+    public void loginOnSubmit(String token, String userName, String password) {
+        LiteLoginFormState state = getState(false);
+        if (state.submitToken == null || !state.submitToken.equals(token)) {
+            return;
+        }
+        userName = userName == null ? "" : userName;
+        password = password == null ? "" : password;
+        if (pipeline.begin(userName, password)) {
+            pipeline.authenticate(userName, password, null, null);
+        }
+    }
+
+    /**
+     * Sets the authenticator that verifies the credentials before the login event is fired. The authenticator
+     * is not serialized with the form. To keep it after the session has been deserialized, set it for the whole
+     * service with {@link LoginFormSupport#setAuthenticator(Authenticator)}.
+     *
+     * @param authenticator the authenticator or {@code null} to use the authenticator of the service, if any, and to
+     *                      leave the verification to the login listeners otherwise
+     */
+    public void setAuthenticator(Authenticator authenticator) {
+        pipeline.setAuthenticator(authenticator);
+    }
+
+    /**
+     * Returns the authenticator. If the form has no authenticator of its own, the authenticator of the service is
+     * returned.
+     *
+     * @return the authenticator or {@code null}
+     * @see #setAuthenticator(Authenticator)
+     */
+    public Authenticator getAuthenticator() {
+        return pipeline.getAuthenticator();
+    }
+
+    /**
+     * Sets a throttle that limits the rate of login attempts per user name and client address.
+     * The throttle is not serialized with the form. To keep it after the session has been deserialized, set it for
+     * the whole service with {@link LoginFormSupport#setLoginThrottle(LoginThrottle)}.
+     *
+     * @param loginThrottle the throttle or {@code null} to use the throttle of the service, if any, and to disable
+     *                      throttling otherwise
+     */
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        pipeline.setLoginThrottle(loginThrottle);
+    }
+
+    /**
+     * Returns the login throttle. If the form has no throttle of its own, the throttle of the service is returned.
+     *
+     * @return the throttle or {@code null} if throttling is disabled
+     * @see #setLoginThrottle(LoginThrottle)
+     */
+    public LoginThrottle getLoginThrottle() {
+        return pipeline.getLoginThrottle();
+    }
+
+    /**
+     * Sets the executor that runs the {@link Authenticator} without holding the session lock. The login event is
+     * then fired with {@link com.vaadin.ui.UI#access(Runnable)}. Enable server push for the UI, otherwise the outcome
+     * only reaches the client with its next request. The executor is not serialized with the form. To keep it after
+     * the session has been deserialized, set it for the whole service with
+     * {@link LoginFormSupport#setLoginExecutor(Executor)}.
+     *
+     * @param executor the executor or {@code null} to use the executor of the service, if any, and to authenticate
+     *                 synchronously otherwise, which is the default
+     */
+    public void setLoginExecutor(Executor executor) {
+        pipeline.setLoginExecutor(executor);
+    }
+
+    /**
+     * Returns the executor that runs the authenticator. If the form has no executor of its own, the executor of the
+     * service is returned.
+     *
+     * @return the executor or {@code null} if logins are authenticated synchronously
+     * @see #setLoginExecutor(Executor)
+     */
+    public Executor getLoginExecutor() {
+        return pipeline.getLoginExecutor();
+    }
+
+    /**
+     * Sets the audit log that records every login attempt of this form, including throttled and rejected attempts.
+     * The audit log is not serialized with the form. To keep it after the session has been deserialized, set it for
+     * the whole service with {@link LoginFormSupport#setAuditLog(LoginAuditLog)}.
+     *
+     * @param auditLog the audit log or {@code null} to use the audit log of the service, if any
+     * @see LoginForm#setAuditLog(LoginAuditLog)
+     */
+    public void setAuditLog(LoginAuditLog auditLog) {
+        pipeline.setAuditLog(auditLog);
+    }
+
+    /**
+     * Returns the audit log of this form. If the form has no audit log of its own, the audit log of the service is
+     * returned.
+     *
+     * @return the audit log or {@code null}
+     * @see #setAuditLog(LoginAuditLog)
+     */
+    public LoginAuditLog getAuditLog() {
+        return pipeline.getAuditLog();
+    }
+
+    /**
+     * Sets the validation rules for the user name field. The client checks them before the form is submitted and the
+     * server checks them again before the login is processed.
+     *
+     * @param validation the rules or {@code null} to accept any value, which is the default
+     * @see LoginForm#setUserNameValidation(LoginFieldValidation)
+     */
+    public void setUserNameValidation(LoginFieldValidation validation) {
+        LoginPipeline.checkPattern(validation);
+        getState().userNameValidation = validation;
+    }
+
+    /**
+     * Returns the validation rules for the user name field.
+     *
+     * @return the rules or {@code null} if any value is accepted
+     * @see #setUserNameValidation(LoginFieldValidation)
+     */
+    public LoginFieldValidation getUserNameValidation() {
+        return getState(false).userNameValidation;
+    }
+
+    /**
+     * Sets the validation rules for the password field.
+     *
+     * @param validation the rules or {@code null} to accept any value, which is the default
+     * @see #setUserNameValidation(LoginFieldValidation)
+     */
+    public void setPasswordValidation(LoginFieldValidation validation) {
+        LoginPipeline.checkPattern(validation);
+        getState().passwordValidation = validation;
+    }
+
+    /**
+     * Returns the validation rules for the password field.
+     *
+     * @return the rules or {@code null} if any value is accepted
+     * @see #setPasswordValidation(LoginFieldValidation)
+     */
+    public LoginFieldValidation getPasswordValidation() {
+        return getState(false).passwordValidation;
+    }
+
+    /**
+     * Sets the caption of the user name field. The default value is "User name".
+     *
+     * @param caption the caption
+     */
+    public void setUserNameCaption(String caption) {
+        getState().userNameCaption = caption;
+    }
+
+    /**
+     * Returns the caption of the user name field.
+     *
+     * @return the caption
+     * @see #setUserNameCaption(String)
+     */
+    public String getUserNameCaption() {
+        return getState(false).userNameCaption;
+    }
+
+    /**
+     * Sets the caption of the password field. The default value is "Password".
+     *
+     * @param caption the caption
+     */
+    public void setPasswordCaption(String caption) {
+        getState().passwordCaption = caption;
+    }
+
+    /**
+     * Returns the caption of the password field.
+     *
+     * @return the caption
+     * @see #setPasswordCaption(String)
+     */
+    public String getPasswordCaption() {
+        return getState(false).passwordCaption;
+    }
+
+    /**
+     * Sets the caption of the login button. The default value is "Login".
+     *
+     * @param caption the caption
+     */
+    public void setLoginButtonCaption(String caption) {
+        getState().loginButtonCaption = caption;
+    }
+
+    /**
+     * Returns the caption of the login button.
+     *
+     * @return the caption
+     * @see #setLoginButtonCaption(String)
+     */
+    public String getLoginButtonCaption() {
+        return getState(false).loginButtonCaption;
+    }
+
+    /**
+     * Adds a listener to handle the login. Login listeners are called directly in the order in which they have been
+     * added.
+     *
+     * @param listener the listener to be added
+     * @see LoginForm#addLoginListener(LoginForm.LoginListener)
+     */
+    public void addLoginListener(LoginForm.LoginListener listener) {
+        pipeline.addLoginListener(listener);
+    }
+
+    /**
+     * Removes a listener
+     *
+     * @param listener the listener to be removed
+     */
+    public void removeLoginListener(LoginForm.LoginListener listener) {
+        pipeline.removeLoginListener(listener);
+    }
+
+    /**
+     * Connects the shared login steps to this form. This is a named class so that serialized sessions do not depend
+     * on the numbering of anonymous classes.
+     */
+    private class LitePipeline extends LoginPipeline {
+
+        private LitePipeline() {
+            super(LiteLoginForm.this);
+        }
+
+        @Override
+        LoginFieldValidation getUserNameValidation() {
+            return getState(false).userNameValidation;
+        }
+
+        @Override
+        LoginFieldValidation getPasswordValidation() {
+            return getState(false).passwordValidation;
+        }
+
+        @Override
+        void loginThrottled(String userName, long retryAfterMillis) {
+            LiteLoginForm.this.loginThrottled(userName, retryAfterMillis);
+        }
+
+        @Override
+        void loginRejected(String userName) {
+            LiteLoginForm.this.loginRejected(userName);
+        }
+
+        @Override
+        void sendLoginOutcome(LoginOutcome outcome, String message) {
+            LiteLoginForm.this.sendLoginOutcome(outcome, message);
+        }
+
+        @Override
+        void login(String userName, String password, AuthenticationResult authentication, boolean async,
+                   Object result) {
+            LiteLoginForm.this.login(userName, password, authentication);
+        }
+    }
+
+    private static class LiteLoginFormRpcImpl implements LiteLoginFormRpc {
+        @Override
+        public void resultRequested() {
+            // the changes of the login are sent with the response
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+/**
+ * The state of a single login that is passed through the {@link LoginStageHandler}s of a {@link LoginForm}.
+ */
+public final class LoginContext {
+
+    private final LoginForm loginForm;
+    private final String userName;
+    private final String password;
+    private volatile AuthenticationResult authenticationResult;
+    private volatile boolean stopped;
+
+    final LoginStageHandler[][] handlers;
+    LoginStage stage = LoginStage.PRE_VALIDATION;
+    int handlerIndex;
+
+    LoginContext(LoginForm loginForm, String userName, String password, LoginStageHandler[][] handlers) {
+        this.loginForm = loginForm;
+        this.userName = userName;
+        this.password = password;
+        this.handlers = handlers;
+    }
+
+    /**
+     * Returns the login form that has been submitted. Components must only be accessed with the session lock held.
+     *
+     * @return the login form
+     */
+    public LoginForm getLoginForm() {
+        return loginForm;
+    }
+
+    /**
+     * Get the user name entered by the user.
+     *
+     * @return the user name
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Get the password entered by the user.
+     *
+     * @return the password value
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Returns the stage of the handler that is currently called.
+     *
+     * @return the stage
+     */
+    public LoginStage getStage() {
+        return stage;
+    }
+
+    /**
+     * Returns the result of the authentication.
+     *
+     * @return the result or {@code null} if the credentials have not been verified yet
+     */
+    public AuthenticationResult getAuthenticationResult() {
+        return authenticationResult;
+    }
+
+    /**
+     * Sets the result of the authentication. If a handler of the {@link LoginStage#AUTHENTICATION} stage sets a
+     * result, the {@link Authenticator} of the login form is not called.
+     *
+     * @param authenticationResult the result
+     */
+    public void setAuthenticationResult(AuthenticationResult authenticationResult) {
+        this.authenticationResult = authenticationResult;
+    }
+
+    /**
+     * Stops the login. No further handlers and no login listeners are called.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns whether the login has been stopped.
+     *
+     * @return {@code true} if {@link #stop()} has been called
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+}
@@ -16,18 +16,22 @@
 
 package com.ejt.vaadin.loginform;
 
-import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import com.ejt.vaadin.loginform.audit.AuditOutcome;
+import com.ejt.vaadin.loginform.audit.LoginAuditLog;
+import com.ejt.vaadin.loginform.metrics.LoginMetrics;
+import com.ejt.vaadin.loginform.shared.LoginFieldValidation;
+import com.ejt.vaadin.loginform.shared.LoginFormClientRpc;
 import com.ejt.vaadin.loginform.shared.LoginFormRpc;
 import com.ejt.vaadin.loginform.shared.LoginFormState;
+import com.ejt.vaadin.loginform.shared.LoginOutcome;
+import com.ejt.vaadin.loginform.shared.LoginTimings;
 import com.vaadin.server.*;
 import com.vaadin.ui.*;
 
-import javax.portlet.PortletRequest;
-import javax.servlet.http.HttpServletRequest;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.*;
 
 /**
  * Login form with auto-completion and auto-fill for all major browsers.
@@ -44,36 +48,50 @@ import java.lang.reflect.Method;
  * These methods are called automatically and cannot be called by your code.
  * Captions can be reset by overriding {@link #getUserNameFieldCaption()}, {@link #getPasswordFieldCaption()}
  * and {@link #getLoginButtonCaption()}.
+ * <p/>
+ * If the login involves slow operations like LDAP lookups or password hashing, you can set an
+ * {@link AsyncLoginHandler} together with an executor with {@link #setAsyncLoginHandler(AsyncLoginHandler, Executor)}.
+ * The handler is then called on the executor without holding the session lock and the login event is
+ * fired with {@link UI#access(Runnable)} after the handler has completed.
+ * <p/>
+ * Credentials can be verified with an {@link Authenticator} that is set with {@link #setAuthenticator(Authenticator)}.
+ * Its result is passed to the login listeners with {@link LoginEvent#getAuthenticationResult()}. If a login executor
+ * has been set, the authenticator is called on the executor as well.
+ * <p/>
+ * With {@link #setLoginOnSubmit(boolean)}, the login is processed directly with the POST request that triggers
+ * the password manager, which saves a round trip.
+ * <p/>
+ * To protect expensive credential checks against brute force attacks, set a {@link LoginThrottle} with
+ * {@link #setLoginThrottle(LoginThrottle)}. Throttled attempts are rejected before any listener is called.
+ * <p/>
+ * Checks before and after the authentication can be added as {@link LoginStageHandler}s with
+ * {@link #addLoginStageHandler(LoginStage, LoginStageHandler)}. They are called stage by stage without reflection
+ * and can stop the login.
  */
-public abstract class LoginForm extends AbstractSingleComponentContainer {
+public abstract class LoginForm extends AbstractSingleComponentContainer implements LoginSubmitTarget {
+
+    private static final LoginStageHandler[][] NO_STAGE_HANDLERS = new LoginStageHandler[LoginStage.values().length][0];
 
-    private static final Method ON_LOGIN_METHOD;
+    private static final Method ON_LOGIN_TIMINGS_METHOD;
 
     static {
         try {
-            ON_LOGIN_METHOD = LoginListener.class.getDeclaredMethod("onLogin", new Class[] {LoginEvent.class});
+            ON_LOGIN_TIMINGS_METHOD = LoginTimingsListener.class.getDeclaredMethod("onLoginTimings", new Class[] {LoginTimingsEvent.class});
         } catch (final java.lang.NoSuchMethodException e) {
             // This should never happen
-            throw new java.lang.RuntimeException("Internal error finding methods in LoginListener");
+            throw new java.lang.RuntimeException("Internal error finding methods in LoginTimingsListener");
         }
     }
 
-    private static final RequestHandler REQUEST_HANDLER = new RequestHandler() {
-        @Override
-        public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
-            if (LoginFormConnector.LOGIN_URL.equals(request.getPathInfo())) {
-                response.setContentType("text/html; charset=utf-8");
-                response.setCacheTime(-1);
-                PrintWriter writer = response.getWriter();
-                writer.append("<html>Success</html>");
-                return true;
-            } else {
-                return false;
-            }
-        }
-    };
-
     private boolean initialized;
+    private LoginStageHandler[][] stageHandlers = NO_STAGE_HANDLERS;
+    private int preLoginIdleTimeout;
+    private int preLoginHeartbeatInterval = -1;
+
+    private final LoginPipeline pipeline = new FormPipeline();
+
+    private AsyncLoginHandler asyncLoginHandler;
+    private PrepareLoginHandler prepareLoginHandler;
 
     protected LoginForm() {
     }
@@ -97,12 +115,486 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
      * You can override this method to handle the login directly without using the event mechanism.
      * The login event will only be fired, if you call super.login(..) in your overriding method.
      * This method is called after the dummy POST request that triggers the password manager has been completed.
+     * If no {@link Authenticator} is involved, the default implementation calls {@link #login(String, String)}.
+     *
+     * @param userName       the user name
+     * @param password       the password
+     * @param authentication the result of the authenticator or of an authentication stage handler, or {@code null}
+     */
+    protected void login(String userName, String password, AuthenticationResult authentication) {
+        if (authentication == null) {
+            login(userName, password);
+        } else {
+            pipeline.fireLogin(new LoginEvent(LoginForm.this, userName, password, authentication, null));
+        }
+    }
+
+    /**
+     * You can override this method to handle logins without an {@link Authenticator} directly without using
+     * the event mechanism. The login event will only be fired, if you call super.login(..) in your overriding method.
      *
      * @param userName the user name
      * @param password the password
+     * @see #login(String, String, AuthenticationResult)
      */
     protected void login(String userName, String password) {
-        fireEvent(new LoginEvent(LoginForm.this, userName, password));
+        pipeline.fireLogin(new LoginEvent(LoginForm.this, userName, password, null, null));
+    }
+
+    /**
+     * Called with the session lock held after the {@link AsyncLoginHandler} or the {@link Authenticator}
+     * has completed successfully on the login executor.
+     * You can override this method to handle the result directly without using the event mechanism.
+     * The login event will only be fired, if you call super.loginCompleted(..) in your overriding method.
+     * If a login executor is used, this method is called instead of {@link #login(String, String, AuthenticationResult)}.
+     * If no {@link Authenticator} is involved, the default implementation calls
+     * {@link #loginCompleted(String, String, Object)}.
+     *
+     * @param userName       the user name
+     * @param password       the password
+     * @param authentication the result of the authenticator or of an authentication stage handler, or {@code null}
+     * @param result         the value returned by {@link AsyncLoginHandler#handleLogin(String, String)} or
+     *                       {@code null} if no async login handler has been set
+     */
+    protected void loginCompleted(String userName, String password, AuthenticationResult authentication,
+                                  Object result) {
+        if (authentication == null) {
+            loginCompleted(userName, password, result);
+        } else {
+            pipeline.fireLogin(new LoginEvent(LoginForm.this, userName, password, authentication, result));
+        }
+    }
+
+    /**
+     * You can override this method to handle the results of async login handlers without an {@link Authenticator}
+     * directly without using the event mechanism. The login event will only be fired, if you call
+     * super.loginCompleted(..) in your overriding method.
+     *
+     * @param userName the user name
+     * @param password the password
+     * @param result   the value returned by {@link AsyncLoginHandler#handleLogin(String, String)}
+     * @see #loginCompleted(String, String, AuthenticationResult, Object)
+     */
+    protected void loginCompleted(String userName, String password, Object result) {
+        pipeline.fireLogin(new LoginEvent(LoginForm.this, userName, password, null, result));
+    }
+
+    /**
+     * Called instead of {@link #login(String, String, AuthenticationResult)} if a login attempt has been rejected by
+     * the login throttle. The default implementation notifies the client, which then blocks further attempts for
+     * the given time.
+     *
+     * @param userName         the user name
+     * @param retryAfterMillis the time in milliseconds until the next attempt will be permitted
+     */
+    protected void loginThrottled(String userName, long retryAfterMillis) {
+        getRpcProxy(LoginFormClientRpc.class).loginThrottled((int)Math.min(retryAfterMillis, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Called when the user name field loses the focus or when the user has stopped typing the user name, if a
+     * {@link PrepareLoginHandler} has been set. The default implementation starts the handler on the login
+     * executor. Without an executor, nothing is prepared, since the handler would otherwise run under the session
+     * lock for a request that has not been authenticated. Each session can only start a limited number of
+     * preparations per minute.
+     *
+     * @param userName the user name, never empty
+     */
+    protected void prepareLogin(String userName) {
+        Executor executor = pipeline.getLoginExecutor();
+        if (prepareLoginHandler != null && executor != null) {
+            PreparedLogin.start(getSession(), userName, prepareLoginHandler, executor);
+        }
+    }
+
+    /**
+     * Sets a handler that prepares a login while the user types the password, for example by fetching the user
+     * record. With {@code null}, which is the default, the client does not notify the server about the user name
+     * before the login. The handler only runs on the login executor, so it requires
+     * {@link #setLoginExecutor(Executor)}. The handler is serialized with the form, like the
+     * {@link AsyncLoginHandler}.
+     *
+     * @param prepareLoginHandler the handler or {@code null}
+     */
+    public void setPrepareLoginHandler(PrepareLoginHandler prepareLoginHandler) {
+        this.prepareLoginHandler = prepareLoginHandler;
+        getState().prepareLogin = prepareLoginHandler != null;
+    }
+
+    /**
+     * Returns the handler that prepares logins.
+     *
+     * @return the handler or {@code null}
+     */
+    public PrepareLoginHandler getPrepareLoginHandler() {
+        return prepareLoginHandler;
+    }
+
+    /**
+     * Returns the result of the {@link PrepareLoginHandler} for the given user name and removes it from the session.
+     * Call this method from a login listener or a stage handler with the session lock held. There is one prepared
+     * login per session, and it expires after a few minutes.
+     *
+     * @param userName the user name of the login
+     * @return the result or {@code null} if the login has not been prepared for this user name, the preparation
+     * has failed or it is still running
+     */
+    public Object getPreparedLogin(String userName) {
+        VaadinSession session = getSession();
+        return session != null ? PreparedLogin.take(session, userName) : null;
+    }
+
+    /**
+     * Sends the outcome of a login to the client, which shows it with the style name of the outcome and the message.
+     * If an {@link Authenticator} has been set, the outcome is sent automatically after the login listeners have
+     * been called. Asynchronous logins send {@link LoginOutcome#PENDING} when they are started and their final
+     * outcome with server push, if it is enabled for the UI. For {@link LoginOutcome#FAILURE}, the password field
+     * is cleared.
+     *
+     * @param outcome the outcome
+     * @param message a message for the user or {@code null}
+     */
+    public void sendLoginOutcome(LoginOutcome outcome, String message) {
+        if (outcome == LoginOutcome.FAILURE && initialized) {
+            getPasswordField().clear();
+        }
+        getRpcProxy(LoginFormClientRpc.class).loginOutcome(outcome, message);
+    }
+
+    /**
+     * Called if a login has been rejected by the login executor because it is saturated, for example by a
+     * {@link BoundedLoginExecutor} with a full queue. The default implementation tells the client that the server
+     * is busy. The client then retries the login after a randomized delay that grows with each rejection.
+     *
+     * @param userName the user name
+     */
+    protected void loginRejected(String userName) {
+        getState().busyCount++;
+    }
+
+    /**
+     * Sets the initial delay in milliseconds before the client retries a login that has been rejected because the
+     * login executor was saturated. The delay is randomized and doubled for each subsequent rejection.
+     * The default value is 1000.
+     *
+     * @param busyRetryDelay the delay in milliseconds
+     */
+    public void setBusyRetryDelay(int busyRetryDelay) {
+        if (busyRetryDelay < 1) {
+            throw new IllegalArgumentException("busyRetryDelay must be positive");
+        }
+        getState().busyRetryDelay = busyRetryDelay;
+    }
+
+    /**
+     * Returns the initial delay before the client retries a rejected login.
+     *
+     * @return the delay in milliseconds
+     * @see #setBusyRetryDelay(int)
+     */
+    public int getBusyRetryDelay() {
+        return getState(false).busyRetryDelay;
+    }
+
+    /**
+     * Starts an asynchronous login with the authenticator and the async login handler on the login executor.
+     * Call this method to start a login programmatically. Logins that are submitted by the client are started
+     * by the form itself after the stage handlers of the authentication stage have been called.
+     *
+     * @param userName the user name
+     * @param password the password
+     * @return a future for the value returned by the async login handler
+     */
+    protected Future<Object> loginAsync(String userName, String password) {
+        return pipeline.loginAsync(userName, password, null, asyncLoginHandler);
+    }
+
+    /**
+     * Sets a handler that processes logins on the given executor without holding the session lock.
+     * When the handler has completed, {@link #loginCompleted(String, String, AuthenticationResult, Object)} is called
+     * through {@link UI#access(Runnable)} and the login event is fired. Exceptions thrown by the handler
+     * are passed to the error handler of the form.
+     * <p/>
+     * The handler is serialized with the form, but the executor is not. After the session has been deserialized, the
+     * executor of the {@link LoginFormSupport} of the service is used, if any. Without an executor, logins are
+     * handled synchronously and the handler is not called. The executor is also used for the {@link Authenticator}.
+     *
+     * @param handler  the async login handler or {@code null} to remove the handler
+     * @param executor the executor that runs the handler
+     * @see #setLoginExecutor(Executor)
+     */
+    public void setAsyncLoginHandler(AsyncLoginHandler handler, Executor executor) {
+        if (handler != null && executor == null) {
+            throw new IllegalArgumentException("An executor is required for an async login handler");
+        }
+        this.asyncLoginHandler = handler;
+        pipeline.setLoginExecutor(executor);
+    }
+
+    /**
+     * Sets the executor that runs the {@link Authenticator} and the {@link AsyncLoginHandler} without holding
+     * the session lock. The executor is not serialized with the form. To keep it after the session has been
+     * deserialized, set it for the whole service with {@link LoginFormSupport#setLoginExecutor(Executor)}.
+     *
+     * @param executor the executor or {@code null} to use the executor of the service, if any, and to handle logins
+     *                 synchronously otherwise
+     */
+    public void setLoginExecutor(Executor executor) {
+        pipeline.setLoginExecutor(executor);
+    }
+
+    /**
+     * Returns the async login handler.
+     *
+     * @return the handler or {@code null} if logins are handled synchronously
+     */
+    public AsyncLoginHandler getAsyncLoginHandler() {
+        return asyncLoginHandler;
+    }
+
+    /**
+     * Returns the executor that runs the authenticator and the async login handler. If the form has no executor of
+     * its own, the executor of the service is returned.
+     *
+     * @return the executor or {@code null} if logins are handled synchronously
+     */
+    public Executor getLoginExecutor() {
+        return pipeline.getLoginExecutor();
+    }
+
+    /**
+     * Returns the asynchronous logins that are queued or running on the login executor.
+     *
+     * @return a snapshot of the pending logins
+     */
+    public Collection<Future<Object>> getPendingLogins() {
+        return pipeline.getPendingLogins();
+    }
+
+    /**
+     * Sets the authenticator that verifies the credentials before the login event is fired. The authenticator
+     * is not serialized with the form. To keep it after the session has been deserialized, set it for the whole
+     * service with {@link LoginFormSupport#setAuthenticator(Authenticator)}.
+     *
+     * @param authenticator the authenticator or {@code null} to use the authenticator of the service, if any, and to
+     *                      leave the verification to the login listeners otherwise
+     */
+    public void setAuthenticator(Authenticator authenticator) {
+        pipeline.setAuthenticator(authenticator);
+    }
+
+    /**
+     * Returns the authenticator. If the form has no authenticator of its own, the authenticator of the service is
+     * returned.
+     *
+     * @return the authenticator or {@code null}
+     */
+    public Authenticator getAuthenticator() {
+        return pipeline.getAuthenticator();
+    }
+
+    /**
+     * Sets a throttle that limits the rate of login attempts per user name and client address.
+     * Throttled attempts are passed to {@link #loginThrottled(String, long)} and no login event is fired.
+     * The throttle is not serialized with the form. To keep it after the session has been deserialized, set it for
+     * the whole service with {@link LoginFormSupport#setLoginThrottle(LoginThrottle)}.
+     *
+     * @param loginThrottle the throttle or {@code null} to use the throttle of the service, if any, and to disable
+     *                      throttling otherwise
+     */
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        pipeline.setLoginThrottle(loginThrottle);
+    }
+
+    /**
+     * Returns the login throttle. If the form has no throttle of its own, the throttle of the service is returned.
+     *
+     * @return the throttle or {@code null} if throttling is disabled
+     */
+    public LoginThrottle getLoginThrottle() {
+        return pipeline.getLoginThrottle();
+    }
+
+    /**
+     * Sets whether the login is processed with the POST request that triggers the password manager.
+     * By default, the client sends the field values with a separate request after the POST request has completed.
+     * In this mode, the credentials are read from the POST request and the client only has to fetch the result.
+     * With server push enabled, the result is pushed to the client and no further request is required.
+     * <p/>
+     * The credentials are passed to the login without being written to the server-side fields, so the password is
+     * never sent back to the client. The client clears its password field when the outcome of the login arrives.
+     * <p/>
+     * This mode requires that the user name and password fields are the ones passed to
+     * {@link #createContent(TextField, PasswordField, Button)}.
+     *
+     * @param loginOnSubmit {@code true} if the login should be processed with the POST request
+     */
+    public void setLoginOnSubmit(boolean loginOnSubmit) {
+        getState().loginOnSubmit = loginOnSubmit;
+    }
+
+    /**
+     * Returns whether the login is processed with the POST request that triggers the password manager.
+     *
+     * @return {@code true} if the login is processed with the POST request
+     * @see #setLoginOnSubmit(boolean)
+     */
+    public boolean isLoginOnSubmit() {
+        return getState(false).loginOnSubmit;
+    }
+
+    /**
+     * Sets the time in milliseconds that the field values have to remain unchanged after the enter key has been
+     * pressed before the form is submitted. The default value is 0, which submits the form as soon as the browser
+     * has processed the key event. If the values are changed by an auto-completion popup in the meantime,
+     * the form is not submitted.
+     *
+     * @param submitDelay the delay in milliseconds
+     */
+    public void setSubmitDelay(int submitDelay) {
+        if (submitDelay < 0) {
+            throw new IllegalArgumentException("submitDelay must not be negative");
+        }
+        getState().submitDelay = submitDelay;
+    }
+
+    /**
+     * Returns the time in milliseconds that the field values have to remain unchanged before the form is submitted.
+     *
+     * @return the delay in milliseconds
+     * @see #setSubmitDelay(int)
+     */
+    public int getSubmitDelay() {
+        return getState(false).submitDelay;
+    }
+
+    /**
+     * Marks the session as a pre-login session while this form is attached and nobody has logged in. Sessions of
+     * crawlers and monitoring probes that never log in are then evicted after a short idle timeout instead of the
+     * timeout of the container. A background sweeper invalidates them and reports the number of evicted sessions
+     * and the estimated heap that has been reclaimed in {@link LoginMetrics}.
+     * <p/>
+     * The heartbeat interval of the client is lengthened at the same time, so that an open browser window does not
+     * keep a pre-login session alive. If the heartbeat interval is longer than the idle timeout, a user who returns
+     * to an abandoned login page has to reload it. The original timeout and heartbeat interval are restored when
+     * an {@link Authenticator} reports a successful login, when {@link #loginSucceeded()} is called or when the form
+     * is detached.
+     *
+     * @param idleTimeout       the idle timeout in seconds or 0 to disable pre-login sessions, which is the default
+     * @param heartbeatInterval the heartbeat interval in seconds or -1 to keep the interval of the application
+     */
+    public void setPreLoginTimeouts(int idleTimeout, int heartbeatInterval) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("idleTimeout must not be negative");
+        }
+        if (heartbeatInterval == 0 || heartbeatInterval < -1) {
+            throw new IllegalArgumentException("heartbeatInterval must be positive or -1");
+        }
+        preLoginIdleTimeout = idleTimeout;
+        preLoginHeartbeatInterval = heartbeatInterval;
+        if (getSession() != null) {
+            updatePreLoginSession();
+        }
+    }
+
+    /**
+     * Returns the idle timeout of pre-login sessions.
+     *
+     * @return the timeout in seconds or 0 if pre-login sessions are disabled
+     * @see #setPreLoginTimeouts(int, int)
+     */
+    public int getPreLoginIdleTimeout() {
+        return preLoginIdleTimeout;
+    }
+
+    /**
+     * Returns the heartbeat interval of pre-login sessions.
+     *
+     * @return the interval in seconds or -1 if the interval of the application is kept
+     * @see #setPreLoginTimeouts(int, int)
+     */
+    public int getPreLoginHeartbeatInterval() {
+        return preLoginHeartbeatInterval;
+    }
+
+    /**
+     * Tells the form that a login has succeeded. This is called automatically when an {@link Authenticator} reports a
+     * successful login. If the credentials are checked in a login listener or in an overridden login method, call
+     * it after a successful login, so that the session is no longer treated as a pre-login session and gets its
+     * original timeout and heartbeat interval back. Called from a login listener without an authenticator, it also
+     * makes the audit log record {@link AuditOutcome#SUCCESS} instead of {@link AuditOutcome#UNVERIFIED}.
+     */
+    public void loginSucceeded() {
+        pipeline.confirmLogin();
+        VaadinSession session = getSession();
+        if (preLoginIdleTimeout > 0 && session != null) {
+            getPreLoginSessions().loginSucceeded(session);
+            setPreLoginHeartbeat(-1);
+        }
+    }
+
+    private void updatePreLoginSession() {
+        boolean preLogin = false;
+        if (preLoginIdleTimeout > 0) {
+            preLogin = getPreLoginSessions().mark(getSession(), preLoginIdleTimeout);
+        } else {
+            getPreLoginSessions().unmark(getSession());
+        }
+        setPreLoginHeartbeat(preLogin ? preLoginHeartbeatInterval : -1);
+    }
+
+    private PreLoginSessions getPreLoginSessions() {
+        return LoginFormSupport.install(getSession().getService()).getPreLoginSessions();
+    }
+
+    /**
+     * Sets the validation rules for the user name field. The rules are checked by the client before the form is
+     * submitted, so that blank or malformed input is rejected without a request to the server. The server checks
+     * the rules again before the login is processed. The message of the rules is sent as a
+     * {@link LoginOutcome#FAILURE}.
+     *
+     * @param validation the rules or {@code null} to accept any value, which is the default
+     */
+    public void setUserNameValidation(LoginFieldValidation validation) {
+        LoginPipeline.checkPattern(validation);
+        getState().userNameValidation = validation;
+    }
+
+    /**
+     * Returns the validation rules for the user name field.
+     *
+     * @return the rules or {@code null} if any value is accepted
+     * @see #setUserNameValidation(LoginFieldValidation)
+     */
+    public LoginFieldValidation getUserNameValidation() {
+        return getState(false).userNameValidation;
+    }
+
+    /**
+     * Sets the validation rules for the password field.
+     *
+     * @param validation the rules or {@code null} to accept any value, which is the default
+     * @see #setUserNameValidation(LoginFieldValidation)
+     */
+    public void setPasswordValidation(LoginFieldValidation validation) {
+        LoginPipeline.checkPattern(validation);
+        getState().passwordValidation = validation;
+    }
+
+    /**
+     * Returns the validation rules for the password field.
+     *
+     * @return the rules or {@code null} if any value is accepted
+     * @see #setPasswordValidation(LoginFieldValidation)
+     */
+    public LoginFieldValidation getPasswordValidation() {
+        return getState(false).passwordValidation;
+    }
+
+    private void setPreLoginHeartbeat(int heartbeatInterval) {
+        if (getState(false).preLoginHeartbeatInterval != heartbeatInterval) {
+            getState().preLoginHeartbeatInterval = heartbeatInterval;
+        }
     }
 
     /**
@@ -133,11 +625,7 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
      */
     protected PasswordField createPasswordField() {
         checkInitialized();
-        return new PasswordField(getPasswordFieldCaption()) {
-            @Override
-            public void setInputPrompt(String inputPrompt) {
-            }
-        };
+        return new LoginPasswordField(getPasswordFieldCaption());
     }
 
     /**
@@ -173,10 +661,30 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
         return (LoginFormState)super.getState();
     }
 
+    @Override
+    protected LoginFormState getState(boolean markAsDirty) {
+        return (LoginFormState)super.getState(markAsDirty);
+    }
+
     @Override
     public void attach() {
         super.attach();
         init();
+        LoginFormRegistry.get(getSession()).register(getState(false).submitToken, this);
+        if (preLoginIdleTimeout > 0) {
+            updatePreLoginSession();
+        }
+        LoginMetrics.getInstance().formAttached();
+    }
+
+    @Override
+    public void detach() {
+        LoginMetrics.getInstance().formDetached();
+        LoginFormRegistry.get(getSession()).unregister(getState(false).submitToken, this);
+        if (preLoginIdleTimeout > 0) {
+            getPreLoginSessions().unmark(getSession());
+        }
+        super.detach();
     }
 
     /**
@@ -209,78 +717,196 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
         state.passwordFieldConnector = createPasswordField();
         state.loginButtonConnector = createLoginButton();
 
-        state.contextPath = getContextPath();
+        LoginFormSupport support = LoginFormSupport.install(VaadinService.getCurrent());
+        state.submitToken = LoginFormSupport.createToken();
+        support.register(VaadinSession.getCurrent());
 
-        if (!VaadinSession.getCurrent().getRequestHandlers().contains(REQUEST_HANDLER)) {
-            VaadinSession.getCurrent().addRequestHandler(REQUEST_HANDLER);
-        }
-        registerRpc(new LoginFormRpc() {
-            @Override
-            public void submitCompleted() {
-                login();
-            }
-        });
+        registerRpc(new LoginFormRpcImpl(this));
 
         initialized = true;
 
         setContent(createContent(getUserNameField(), getPasswordField(), getLoginButton()));
     }
 
-    private String getContextPath() {
-        String contextPath = getContextPathFromService();
-        if (contextPath == null) {
-            return "";
-        } else if (contextPath.endsWith("/")) {
-            return contextPath.substring(0, contextPath.length() - 1);
-        } else {
-            return contextPath;
+    private TextField getUserNameField() {
+        return (TextField)getState().userNameFieldConnector;
+    }
+
+    private PasswordField getPasswordField() {
+        return (PasswordField)getState().passwordFieldConnector;
+    }
+
+    private Button getLoginButton() {
+        return (Button)getState().loginButtonConnector;
+    }
+
+    @Override
+    public void loginOnSubmit(String token, String userName, String password) {
+        LoginFormState state = getState(false);
+        if (!initialized || !state.loginOnSubmit || state.submitToken == null || !state.submitToken.equals(token)) {
+            return;
+        }
+        // the values are not written to the fields, which would send the password back to the client
+        startLogin(userName == null ? "" : userName, password == null ? "" : password);
+    }
+
+    private void login() {
+        startLogin(getUserNameField().getValue(), getPasswordField().getValue());
+    }
+
+    private void startLogin(String userName, String password) {
+        if (pipeline.begin(userName, password)) {
+            continueLogin(new LoginContext(this, userName, password, stageHandlers));
         }
     }
 
-    private String getContextPathFromService() {
-        VaadinService service = VaadinService.getCurrent();
-        if (service instanceof VaadinPortletService) {
-            PortletRequest portletRequest = VaadinPortletService.getCurrentPortletRequest();
-            if (portletRequest != null) {
-                return portletRequest.getContextPath();
+    /**
+     * Runs the pre-validation and authentication stage handlers and then authenticates and notifies the listeners.
+     * Called again after an async stage handler has completed.
+     */
+    private void continueLogin(LoginContext context) {
+        if (runStageHandlers(context, LoginStage.AUTHENTICATION)) {
+            pipeline.authenticate(context.getUserName(), context.getPassword(), context, asyncLoginHandler);
+        }
+    }
+
+    /**
+     * Calls the stage handlers from the current position of the context up to the end of the given stage.
+     * If an async handler is reached, it is started on the login executor and the login is continued
+     * with {@link UI#access(Runnable)} after it has completed.
+     *
+     * @return {@code true} if all handlers up to the end of the stage have been called and the login has not
+     * been stopped
+     */
+    private boolean runStageHandlers(LoginContext context, LoginStage lastStage) {
+        while (!context.isStopped()) {
+            LoginStageHandler[] handlers = context.handlers[context.stage.ordinal()];
+            if (context.handlerIndex < handlers.length) {
+                LoginStageHandler handler = handlers[context.handlerIndex++];
+                if (handler instanceof AsyncLoginStageHandler && pipeline.getLoginExecutor() != null) {
+                    startAsyncStageHandler(context, handler);
+                    return false;
+                }
+                callStageHandler(context, handler);
+            } else if (context.stage == lastStage) {
+                return true;
             } else {
-                return null;
+                context.stage = LoginStage.values()[context.stage.ordinal() + 1];
+                context.handlerIndex = 0;
             }
-        } else if (service instanceof VaadinServletService) {
-            HttpServletRequest servletRequest = VaadinServletService.getCurrentServletRequest();
-            if (servletRequest != null) {
-                return servletRequest.getContextPath();
+        }
+        if (context.stage != LoginStage.POST_LOGIN) {
+            AuthenticationResult authentication = context.getAuthenticationResult();
+            pipeline.fail(context.getUserName(), AuditOutcome.FAILURE,
+                    authentication != null ? authentication.getMessage() : null);
+        }
+        return false;
+    }
+
+    private static void callStageHandler(LoginContext context, LoginStageHandler handler) {
+        try {
+            handler.handleLogin(context);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void startAsyncStageHandler(final LoginContext context, final LoginStageHandler handler) {
+        final UI ui = getUI();
+        if (ui == null) {
+            throw new IllegalStateException("The login form is not attached");
+        }
+        try {
+            pipeline.getLoginExecutor().execute(new AsyncStageHandlerCall(ui, context, handler));
+        } catch (RejectedExecutionException e) {
+            if (context.stage == LoginStage.POST_LOGIN) {
+                // the login has already been completed, so the client must not retry it
+                callStageHandler(context, handler);
+                runStageHandlers(context, LoginStage.POST_LOGIN);
             } else {
-                return null;
+                pipeline.reject(context.getUserName());
             }
-        } else {
-            return null;
         }
     }
 
-    private TextField getUserNameField() {
-        return (TextField)getState().userNameFieldConnector;
+    /**
+     * Adds a handler for a stage of the login. The handlers of a stage are called in the order in which they
+     * have been added. Stage handlers run before the login listeners, except for those of the
+     * {@link LoginStage#POST_LOGIN} stage.
+     *
+     * @param stage   the stage
+     * @param handler the handler
+     */
+    public void addLoginStageHandler(LoginStage stage, LoginStageHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        LoginStageHandler[] handlers = stageHandlers[stage.ordinal()];
+        LoginStageHandler[] newHandlers = new LoginStageHandler[handlers.length + 1];
+        System.arraycopy(handlers, 0, newHandlers, 0, handlers.length);
+        newHandlers[handlers.length] = handler;
+        setStageHandlers(stage, newHandlers);
     }
 
-    private PasswordField getPasswordField() {
-        return (PasswordField)getState().passwordFieldConnector;
+    /**
+     * Removes a handler for a stage of the login.
+     *
+     * @param stage   the stage
+     * @param handler the handler
+     */
+    public void removeLoginStageHandler(LoginStage stage, LoginStageHandler handler) {
+        LoginStageHandler[] handlers = stageHandlers[stage.ordinal()];
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i].equals(handler)) {
+                LoginStageHandler[] newHandlers = new LoginStageHandler[handlers.length - 1];
+                System.arraycopy(handlers, 0, newHandlers, 0, i);
+                System.arraycopy(handlers, i + 1, newHandlers, i, handlers.length - i - 1);
+                setStageHandlers(stage, newHandlers);
+                return;
+            }
+        }
     }
 
-    private Button getLoginButton() {
-        return (Button)getState().loginButtonConnector;
+    private void setStageHandlers(LoginStage stage, LoginStageHandler[] handlers) {
+        // copy on write, so that running logins keep the handlers they have started with
+        LoginStageHandler[][] newStageHandlers = stageHandlers.clone();
+        newStageHandlers[stage.ordinal()] = handlers;
+        stageHandlers = newStageHandlers;
     }
 
-    private void login() {
-        login(getUserNameField().getValue(), getPasswordField().getValue());
+    /**
+     * Sets the audit log that records every login attempt of this form, including throttled and rejected attempts.
+     * Share one audit log between all login forms. Recording does not block, the log files are written on a
+     * background thread. The audit log is not serialized with the form. To keep it after the session has been
+     * deserialized, set it for the whole service with {@link LoginFormSupport#setAuditLog(LoginAuditLog)}.
+     *
+     * @param auditLog the audit log or {@code null} to use the audit log of the service, if any
+     */
+    public void setAuditLog(LoginAuditLog auditLog) {
+        pipeline.setAuditLog(auditLog);
     }
 
     /**
-     * Adds a listener to handle the login.
+     * Returns the audit log of this form. If the form has no audit log of its own, the audit log of the service is
+     * returned.
+     *
+     * @return the audit log or {@code null}
+     */
+    public LoginAuditLog getAuditLog() {
+        return pipeline.getAuditLog();
+    }
+
+    /**
+     * Adds a listener to handle the login. Login listeners are called directly in the order in which they have been
+     * added, not through the event router of the component, so they are not returned by
+     * {@link #getListeners(Class)}. Adding the same listener twice has no effect.
      *
      * @param listener the listener to be added
      */
     public void addLoginListener(LoginListener listener) {
-        addListener(LoginEvent.class, listener, ON_LOGIN_METHOD);
+        pipeline.addLoginListener(listener);
     }
 
     /**
@@ -289,7 +915,29 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
      * @param listener the listener to be removed
      */
     public void removeLoginListener(LoginListener listener) {
-        removeListener(LoginEvent.class, listener, ON_LOGIN_METHOD);
+        pipeline.removeLoginListener(listener);
+    }
+
+    /**
+     * Adds a listener that receives the client-side timings of each login. The client only measures and
+     * reports timings while at least one such listener is registered. The timings are delivered with the next
+     * request after the login has completed.
+     *
+     * @param listener the listener to be added
+     */
+    public void addLoginTimingsListener(LoginTimingsListener listener) {
+        addListener(LoginTimingsEvent.class, listener, ON_LOGIN_TIMINGS_METHOD);
+        getState().reportTimings = true;
+    }
+
+    /**
+     * Removes a login timings listener
+     *
+     * @param listener the listener to be removed
+     */
+    public void removeLoginTimingsListener(LoginTimingsListener listener) {
+        removeListener(LoginTimingsEvent.class, listener, ON_LOGIN_TIMINGS_METHOD);
+        getState().reportTimings = !getListeners(LoginTimingsEvent.class).isEmpty();
     }
 
     /**
@@ -309,17 +957,201 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
     }
 
     /**
-     * This event is sent when the login form is submitted.
+     * Handles logins outside of the session lock. Set with
+     * {@link LoginForm#setAsyncLoginHandler(AsyncLoginHandler, Executor)}.
+     */
+    public interface AsyncLoginHandler extends Serializable {
+
+        /**
+         * This method is called on the login executor for each login. The session is not locked, so
+         * the implementation must not access any components.
+         *
+         * @param userName the user name
+         * @param password the password
+         * @return a result that is passed to the login event
+         * @throws Exception if the login cannot be processed
+         */
+        Object handleLogin(String userName, String password) throws Exception;
+    }
+
+    private static class LoginPasswordField extends PasswordField {
+
+        private LoginPasswordField(String caption) {
+            super(caption);
+        }
+
+        @Override
+        public void setInputPrompt(String inputPrompt) {
+        }
+    }
+
+    /**
+     * Server RPC implementation. This is a named class so that serialized sessions do not depend on the numbering
+     * of anonymous classes.
+     */
+    private static class LoginFormRpcImpl implements LoginFormRpc {
+
+        private final LoginForm loginForm;
+
+        private LoginFormRpcImpl(LoginForm loginForm) {
+            this.loginForm = loginForm;
+        }
+
+        @Override
+        public void submitCompleted() {
+            if (!loginForm.isLoginOnSubmit()) {
+                loginForm.login();
+            }
+        }
+
+        @Override
+        public void loginRetried() {
+            // with login on submit, the client retries with another POST request
+            if (!loginForm.isLoginOnSubmit()) {
+                loginForm.login();
+            }
+        }
+
+        @Override
+        public void prepareLogin(String userName) {
+            if (userName != null && !userName.isEmpty()) {
+                loginForm.prepareLogin(userName);
+            }
+        }
+
+        @Override
+        public void resultRequested() {
+            // the changes of the login are sent with the response
+        }
+
+        @Override
+        public void timingsReported(LoginTimings timings) {
+            loginForm.fireEvent(new LoginTimingsEvent(loginForm, timings));
+        }
+    }
+
+    private class AsyncStageHandlerCall implements Runnable {
+
+        private final UI ui;
+        private final LoginContext context;
+        private final LoginStageHandler handler;
+        private Exception failure;
+
+        private AsyncStageHandlerCall(UI ui, LoginContext context, LoginStageHandler handler) {
+            this.ui = ui;
+            this.context = context;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                handler.handleLogin(context);
+            } catch (Exception e) {
+                failure = e;
+            }
+            ui.access(new Runnable() {
+                @Override
+                public void run() {
+                    if (failure != null) {
+                        if (context.stage != LoginStage.POST_LOGIN) {
+                            pipeline.fail(context.getUserName(), AuditOutcome.ERROR, null);
+                        }
+                        com.vaadin.server.ErrorEvent.findErrorHandler(LoginForm.this)
+                                .error(new com.vaadin.server.ErrorEvent(failure));
+                    } else if (context.stage == LoginStage.POST_LOGIN) {
+                        runStageHandlers(context, LoginStage.POST_LOGIN);
+                    } else {
+                        continueLogin(context);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Connects the shared login steps to this form. This is a named class so that serialized sessions do not depend
+     * on the numbering of anonymous classes.
+     */
+    private class FormPipeline extends LoginPipeline {
+
+        private FormPipeline() {
+            super(LoginForm.this);
+        }
+
+        @Override
+        LoginFieldValidation getUserNameValidation() {
+            return getState(false).userNameValidation;
+        }
+
+        @Override
+        LoginFieldValidation getPasswordValidation() {
+            return getState(false).passwordValidation;
+        }
+
+        @Override
+        void loginThrottled(String userName, long retryAfterMillis) {
+            LoginForm.this.loginThrottled(userName, retryAfterMillis);
+        }
+
+        @Override
+        void loginRejected(String userName) {
+            LoginForm.this.loginRejected(userName);
+        }
+
+        @Override
+        void sendLoginOutcome(LoginOutcome outcome, String message) {
+            LoginForm.this.sendLoginOutcome(outcome, message);
+        }
+
+        @Override
+        void login(String userName, String password, AuthenticationResult authentication, boolean async,
+                   Object result) {
+            if (async) {
+                loginCompleted(userName, password, authentication, result);
+            } else {
+                LoginForm.this.login(userName, password, authentication);
+            }
+        }
+
+        @Override
+        void authenticated(AuthenticationResult authentication) {
+            loginSucceeded();
+        }
+
+        @Override
+        void loginAccepted() {
+            if (getState(false).busyCount != 0) {
+                getState().busyCount = 0;
+            }
+        }
+
+        @Override
+        void loginFinished(LoginContext context) {
+            if (context != null) {
+                runStageHandlers(context, LoginStage.POST_LOGIN);
+            }
+        }
+    }
+
+    /**
+     * This event is sent when the login form is submitted. The password and the result of the async login handler
+     * are not serialized with the event.
      */
     public static class LoginEvent extends Event {
 
         private final String userName;
-        private final String password;
+        private final transient String password;
+        private final AuthenticationResult authenticationResult;
+        private final transient Object asyncResult;
 
-        private LoginEvent(final Component source, final String userName, final String password) {
+        LoginEvent(final Component source, final String userName, final String password,
+                           final AuthenticationResult authenticationResult, final Object asyncResult) {
             super(source);
             this.userName = userName;
             this.password = password;
+            this.authenticationResult = authenticationResult;
+            this.asyncResult = asyncResult;
         }
 
         /**
@@ -339,5 +1171,94 @@ public abstract class LoginForm extends AbstractSingleComponentContainer {
         public String getPassword() {
             return password;
         }
+
+        /**
+         * Get the result of the {@link Authenticator}.
+         *
+         * @return the result or {@code null} if no authenticator has been set
+         */
+        public AuthenticationResult getAuthenticationResult() {
+            return authenticationResult;
+        }
+
+        /**
+         * Get the value returned by the {@link AsyncLoginHandler}.
+         *
+         * @return the result or {@code null} if the login has been handled synchronously
+         */
+        public Object getAsyncResult() {
+            return asyncResult;
+        }
+    }
+
+    /**
+     * Listener for the client-side timings of logins.
+     */
+    public interface LoginTimingsListener extends Serializable {
+
+        /**
+         * This method is called when the client reports the timings of a login.
+         *
+         * @param event the event with the timings
+         */
+        void onLoginTimings(LoginTimingsEvent event);
+    }
+
+    /**
+     * This event is sent when the client reports the timings of a login.
+     */
+    public static class LoginTimingsEvent extends Event {
+
+        private final LoginTimings timings;
+
+        private LoginTimingsEvent(Component source, LoginTimings timings) {
+            super(source);
+            this.timings = timings;
+        }
+
+        /**
+         * Returns how the login was triggered.
+         *
+         * @return {@link LoginTimings#TRIGGER_ENTER} or {@link LoginTimings#TRIGGER_CLICK}
+         */
+        public String getTrigger() {
+            return timings.trigger;
+        }
+
+        /**
+         * Returns the time from the trigger until the form was submitted.
+         *
+         * @return the time in milliseconds or -1 if not measured
+         */
+        public double getSubmitTime() {
+            return timings.submitTime;
+        }
+
+        /**
+         * Returns the time from the trigger until the POST request was completed.
+         *
+         * @return the time in milliseconds or -1 if not measured
+         */
+        public double getSubmitCompleteTime() {
+            return timings.submitCompleteTime;
+        }
+
+        /**
+         * Returns the time from the trigger until the login RPC was sent.
+         *
+         * @return the time in milliseconds or -1 if no RPC was required
+         */
+        public double getRpcTime() {
+            return timings.rpcTime;
+        }
+
+        /**
+         * Returns the time from the trigger until the response of the server was processed.
+         *
+         * @return the time in milliseconds or -1 if not measured
+         */
+        public double getResponseTime() {
+            return timings.responseTime;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import com.vaadin.server.BootstrapFragmentResponse;
+import com.vaadin.server.BootstrapListener;
+import com.vaadin.server.BootstrapPageResponse;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinServletRequest;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Bootstrap listener that renders the markup of a login form into the initial HTML page. The user name and
+ * password fields are interactive at first paint and password managers can fill them before any JavaScript
+ * is loaded. When the client-side part of a {@link LoginForm} or a {@link LiteLoginForm} has been loaded, it takes
+ * over the entered values and the focus and removes the pre-rendered form. If the user has submitted the
+ * pre-rendered form in the meantime, the login is performed right away.
+ * <p/>
+ * Add the listener to each session, for example in a {@link com.vaadin.server.SessionInitListener}:
+ * <pre>
+ *     event.getSession().addBootstrapListener(new LoginFormBootstrapListener());
+ * </pre>
+ * The pre-rendered form is only removed by a login form, so the initial content of the UI must contain one.
+ * For UIs that show other content, override {@link #isPrerendered(BootstrapPageResponse)}.
+ */
+public class LoginFormBootstrapListener implements BootstrapListener {
+
+    private String userNameCaption = "User name";
+    private String passwordCaption = "Password";
+    private String loginButtonCaption = "Login";
+
+    @Override
+    public void modifyBootstrapFragment(BootstrapFragmentResponse response) {
+        // an embedding page is not rendered by Vaadin
+    }
+
+    @Override
+    public void modifyBootstrapPage(BootstrapPageResponse response) {
+        if (!isPrerendered(response)) {
+            return;
+        }
+        Document document = response.getDocument();
+        LoginFormSupport.install(response.getSession().getService());
+
+        Element form = document.createElement("form")
+                .attr("id", LoginFormConnector.PRERENDERED_FORM_ID)
+                .attr("class", LoginFormConnector.PRERENDERED_FORM_ID)
+                .attr("method", "post")
+                .attr("action", getLoginUrl(response.getRequest()))
+                // the form is submitted by the login form once it has been loaded
+                .attr("onsubmit", "this.setAttribute('" + LoginFormConnector.PRERENDERED_SUBMIT_ATTRIBUTE + "','true');return false;");
+        appendField(form, LoginFormConnector.USER_NAME_PARAMETER, "text", userNameCaption);
+        appendField(form, LoginFormConnector.PASSWORD_PARAMETER, "password", passwordCaption);
+        form.appendElement("input")
+                .attr("type", "submit")
+                .attr("class", "v-button")
+                .attr("value", loginButtonCaption);
+
+        Element appElement = document.body().getElementsByClass("v-app").first();
+        if (appElement != null) {
+            appElement.before(form);
+        } else {
+            document.body().prependChild(form);
+        }
+    }
+
+    /**
+     * Returns whether the login form should be rendered into the bootstrap page of the given response.
+     * The default implementation returns {@code true}. Return {@code false} for UIs whose initial content contains
+     * neither a {@link LoginForm} nor a {@link LiteLoginForm}, otherwise the pre-rendered form is never removed.
+     *
+     * @param response the response for the bootstrap page
+     * @return {@code true} if the login form should be rendered into the page
+     */
+    protected boolean isPrerendered(BootstrapPageResponse response) {
+        return true;
+    }
+
+    /**
+     * Sets the caption of the pre-rendered user name field. The default value is "User name". Use the same caption as
+     * the login form, so that the page does not change when the login form takes over.
+     *
+     * @param userNameCaption the caption
+     */
+    public void setUserNameCaption(String userNameCaption) {
+        this.userNameCaption = userNameCaption;
+    }
+
+    /**
+     * Returns the caption of the pre-rendered user name field.
+     *
+     * @return the caption
+     * @see #setUserNameCaption(String)
+     */
+    public String getUserNameCaption() {
+        return userNameCaption;
+    }
+
+    /**
+     * Sets the caption of the pre-rendered password field. The default value is "Password".
+     *
+     * @param passwordCaption the caption
+     * @see #setUserNameCaption(String)
+     */
+    public void setPasswordCaption(String passwordCaption) {
+        this.passwordCaption = passwordCaption;
+    }
+
+    /**
+     * Returns the caption of the pre-rendered password field.
+     *
+     * @return the caption
+     * @see #setPasswordCaption(String)
+     */
+    public String getPasswordCaption() {
+        return passwordCaption;
+    }
+
+    /**
+     * Sets the caption of the pre-rendered login button. The default value is "Login".
+     *
+     * @param loginButtonCaption the caption
+     * @see #setUserNameCaption(String)
+     */
+    public void setLoginButtonCaption(String loginButtonCaption) {
+        this.loginButtonCaption = loginButtonCaption;
+    }
+
+    /**
+     * Returns the caption of the pre-rendered login button.
+     *
+     * @return the caption
+     * @see #setLoginButtonCaption(String)
+     */
+    public String getLoginButtonCaption() {
+        return loginButtonCaption;
+    }
+
+    /**
+     * Returns the login URL of the servlet that serves the page, which is not necessarily mapped to the root of
+     * the context.
+     */
+    private static String getLoginUrl(VaadinRequest request) {
+        String servletPath = request instanceof VaadinServletRequest ? ((VaadinServletRequest)request).getServletPath() : "";
+        return request.getContextPath() + servletPath + LoginFormConnector.LOGIN_URL;
+    }
+
+    private static void appendField(Element form, String name, String type, String caption) {
+        form.appendElement("label")
+                .attr("for", name)
+                .text(caption);
+        form.appendElement("input")
+                .attr("type", type)
+                .attr("id", name)
+                .attr("name", name)
+                .attr("autocomplete", "on")
+                .attr("class", "v-textfield");
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.server.VaadinSession;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the submit tokens of the attached login forms in a session to the forms, so that the POST request of a
+ * form can be routed to it directly. The registry is stored as a session attribute and must only be accessed
+ * with the session lock held.
+ */
+final class LoginFormRegistry implements Serializable {
+
+    private final Map<String, LoginSubmitTarget> targets = new HashMap<String, LoginSubmitTarget>();
+
+    private LoginFormRegistry() {
+    }
+
+    /**
+     * Returns the registry of a session and creates it if necessary.
+     *
+     * @param session the session, must be locked
+     * @return the registry
+     */
+    static LoginFormRegistry get(VaadinSession session) {
+        LoginFormRegistry registry = session.getAttribute(LoginFormRegistry.class);
+        if (registry == null) {
+            registry = new LoginFormRegistry();
+            session.setAttribute(LoginFormRegistry.class, registry);
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the registry of a session if it exists.
+     *
+     * @param session the session, must be locked
+     * @return the registry or {@code null}
+     */
+    static LoginFormRegistry find(VaadinSession session) {
+        return session.getAttribute(LoginFormRegistry.class);
+    }
+
+    void register(String token, LoginSubmitTarget target) {
+        targets.put(token, target);
+    }
+
+    void unregister(String token, LoginSubmitTarget target) {
+        if (targets.get(token) == target) {
+            targets.remove(token);
+        }
+    }
+
+    LoginSubmitTarget get(String token) {
+        return targets.get(token);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.vaadin.server.VaadinServlet;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Vaadin servlet that installs the {@link LoginFormSupport} once when the servlet is initialized.
+ * Use this class instead of {@link VaadinServlet} in your web.xml or extend from it.
+ * <p/>
+ * The dummy POST requests of the login forms are answered directly by this servlet with a pre-encoded response,
+ * before the Vaadin session is looked up and locked. POST requests of forms that log in on submit are passed on
+ * to the session.
+ */
+public class LoginFormServlet extends VaadinServlet {
+
+    @Override
+    protected void servletInitialized() throws ServletException {
+        super.servletInitialized();
+        LoginFormSupport.install(getService());
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if ("POST".equals(request.getMethod()) &&
+                LoginFormSupport.isDummyLoginRequest(request.getPathInfo(), request.getQueryString())) {
+            LoginFormSupport.writeLoginResponse(response);
+        } else {
+            super.service(request, response);
+        }
+    }
+}
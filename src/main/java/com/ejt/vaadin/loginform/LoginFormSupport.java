@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.audit.LoginAuditLog;
+import com.ejt.vaadin.loginform.metrics.LoginMetrics;
+import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import com.vaadin.server.*;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.UI;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Service-wide integration of the login form. The request handler for the dummy POST request is added to
+ * each new session by a session init listener that is registered once per {@link VaadinService}. The support also
+ * keeps track of the pre-login sessions of the service and stops their sweeper when the service is destroyed.
+ * The {@link LoginMetrics} are registered with the platform MBean server while the service is running.
+ * <p/>
+ * The authenticator, the login throttle, the login executor and the audit log that are set here are used by all login
+ * forms of the service that have not been given their own. They belong to the service and not to a session, so
+ * unlike the collaborators of a single form, they are available again after a session has been deserialized, for
+ * example after a failover to another node.
+ * <p/>
+ * {@link LoginFormServlet} installs the support when the servlet is initialized. For other servlets and for portlets,
+ * the support is installed when the first login form is attached.
+ */
+public final class LoginFormSupport {
+
+    private static final String SESSION_MARKER = LoginFormSupport.class.getName() + ".registered";
+
+    private static final Map<VaadinService, LoginFormSupport> SUPPORTS = new WeakHashMap<VaadinService, LoginFormSupport>();
+
+    private static final String LOGIN_RESPONSE_CONTENT_TYPE = "text/html; charset=utf-8";
+    private static final byte[] LOGIN_RESPONSE = "<html>Success</html>".getBytes(Charset.forName("UTF-8"));
+    private static final String LOGIN_RESPONSE_LENGTH = String.valueOf(LOGIN_RESPONSE.length);
+
+    static final RequestHandler REQUEST_HANDLER = new LoginRequestHandler();
+
+    private static final SecureRandom TOKEN_RANDOM = new SecureRandom();
+
+    private final PreLoginSessions preLoginSessions = new PreLoginSessions();
+
+    private volatile Authenticator authenticator;
+    private volatile LoginThrottle loginThrottle;
+    private volatile Executor loginExecutor;
+    private volatile LoginAuditLog auditLog;
+
+    private LoginFormSupport(VaadinService service) {
+        LoginMetrics.getInstance().register();
+        service.addSessionInitListener(new SessionInitListener() {
+            @Override
+            public void sessionInit(SessionInitEvent event) {
+                register(event.getSession());
+            }
+        });
+        service.addSessionDestroyListener(new SessionDestroyListener() {
+            @Override
+            public void sessionDestroy(SessionDestroyEvent event) {
+                preLoginSessions.remove(event.getSession());
+            }
+        });
+        service.addServiceDestroyListener(new ServiceDestroyListener() {
+            @Override
+            public void serviceDestroy(ServiceDestroyEvent event) {
+                preLoginSessions.shutdown();
+                LoginMetrics.getInstance().unregister();
+                synchronized (SUPPORTS) {
+                    SUPPORTS.remove(event.getSource());
+                }
+            }
+        });
+    }
+
+    /**
+     * Installs the login form support for a service. Calling this method more than once for the same
+     * service has no effect.
+     *
+     * @param service the service
+     * @return the support for the service
+     */
+    public static LoginFormSupport install(VaadinService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        synchronized (SUPPORTS) {
+            LoginFormSupport support = SUPPORTS.get(service);
+            if (support == null) {
+                support = new LoginFormSupport(service);
+                SUPPORTS.put(service, support);
+            }
+            return support;
+        }
+    }
+
+    PreLoginSessions getPreLoginSessions() {
+        return preLoginSessions;
+    }
+
+    /**
+     * Sets the authenticator for all login forms of the service that have no authenticator of their own.
+     *
+     * @param authenticator the authenticator or {@code null}
+     * @see LoginForm#setAuthenticator(Authenticator)
+     */
+    public void setAuthenticator(Authenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Returns the authenticator for the login forms of the service.
+     *
+     * @return the authenticator or {@code null}
+     * @see #setAuthenticator(Authenticator)
+     */
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * Sets the login throttle for all login forms of the service that have no throttle of their own.
+     *
+     * @param loginThrottle the throttle or {@code null}
+     * @see LoginForm#setLoginThrottle(LoginThrottle)
+     */
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
+    }
+
+    /**
+     * Returns the login throttle for the login forms of the service.
+     *
+     * @return the throttle or {@code null}
+     * @see #setLoginThrottle(LoginThrottle)
+     */
+    public LoginThrottle getLoginThrottle() {
+        return loginThrottle;
+    }
+
+    /**
+     * Sets the login executor for all login forms of the service that have no executor of their own.
+     *
+     * @param loginExecutor the executor or {@code null}
+     * @see LoginForm#setLoginExecutor(Executor)
+     */
+    public void setLoginExecutor(Executor loginExecutor) {
+        this.loginExecutor = loginExecutor;
+    }
+
+    /**
+     * Returns the login executor for the login forms of the service.
+     *
+     * @return the executor or {@code null}
+     * @see #setLoginExecutor(Executor)
+     */
+    public Executor getLoginExecutor() {
+        return loginExecutor;
+    }
+
+    /**
+     * Sets the audit log for all login forms of the service that have no audit log of their own.
+     *
+     * @param auditLog the audit log or {@code null}
+     * @see LoginForm#setAuditLog(LoginAuditLog)
+     */
+    public void setAuditLog(LoginAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Returns the audit log for the login forms of the service.
+     *
+     * @return the audit log or {@code null}
+     * @see #setAuditLog(LoginAuditLog)
+     */
+    public LoginAuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * Checks if a request is the POST request of a login form.
+     *
+     * @param pathInfo the path info of the request
+     * @return {@code true} if the request is directed at the login URL
+     */
+    static boolean isLoginRequest(String pathInfo) {
+        return pathInfo != null && pathInfo.startsWith(LoginFormConnector.LOGIN_URL) &&
+                (pathInfo.length() == LoginFormConnector.LOGIN_URL.length() ||
+                        pathInfo.charAt(LoginFormConnector.LOGIN_URL.length()) == '/');
+    }
+
+    /**
+     * Returns the submit token of the login form from the path of a POST request.
+     *
+     * @param pathInfo the path info of a login request
+     * @return the token or {@code null} if the request is not directed at a particular form
+     */
+    static String getSubmitToken(String pathInfo) {
+        int tokenStart = LoginFormConnector.LOGIN_URL.length() + 1;
+        return pathInfo.length() > tokenStart ? pathInfo.substring(tokenStart) : null;
+    }
+
+    /**
+     * Checks if a POST request of a login form only serves to trigger the password manager. Such requests
+     * can be answered with {@link #writeLoginResponse(HttpServletResponse)} without accessing the session.
+     * Only the query string is inspected, so the request body is not parsed.
+     *
+     * @param pathInfo    the path info of the request
+     * @param queryString the query string of the request
+     * @return {@code true} if the request is a dummy request
+     */
+    static boolean isDummyLoginRequest(String pathInfo, String queryString) {
+        return isLoginRequest(pathInfo) &&
+                (queryString == null || !queryString.contains(LoginFormConnector.LOGIN_ON_SUBMIT_PARAMETER + "="));
+    }
+
+    /**
+     * Writes the pre-encoded response for the dummy POST request. The request body, which contains the password,
+     * is not parsed and no session is accessed.
+     *
+     * @param response the servlet response
+     * @throws IOException if the response cannot be written
+     */
+    static void writeLoginResponse(HttpServletResponse response) throws IOException {
+        LoginMetrics.getInstance().requestHandlerHit();
+        response.setContentType(LOGIN_RESPONSE_CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Pragma", "no-cache");
+        response.setDateHeader("Expires", 0);
+        response.setContentLength(LOGIN_RESPONSE.length);
+        response.getOutputStream().write(LOGIN_RESPONSE);
+    }
+
+    private static void loginOnSubmit(VaadinSession session, VaadinRequest request) {
+        final String token = getSubmitToken(request.getPathInfo());
+        if (token == null) {
+            return;
+        }
+        final String userName = request.getParameter(LoginFormConnector.USER_NAME_PARAMETER);
+        final String password = request.getParameter(LoginFormConnector.PASSWORD_PARAMETER);
+        final LoginSubmitTarget target;
+        final UI ui;
+        session.lock();
+        try {
+            LoginFormRegistry registry = LoginFormRegistry.find(session);
+            target = registry != null ? registry.get(token) : null;
+            ui = target != null ? ((Component)target).getUI() : null;
+        } finally {
+            session.unlock();
+        }
+        if (ui == null) {
+            return;
+        }
+        ui.accessSynchronously(new Runnable() {
+            @Override
+            public void run() {
+                target.loginOnSubmit(token, userName, password);
+            }
+        });
+    }
+
+    /**
+     * Creates a random token that authorizes POST requests of a login form to log in.
+     *
+     * @return the token
+     */
+    static String createToken() {
+        return new BigInteger(130, TOKEN_RANDOM).toString(32);
+    }
+
+    /**
+     * Returns the address of the client for the current request or the session of a component.
+     *
+     * @param component the component
+     * @return the address or {@code null} if it is not known
+     */
+    static String getClientAddress(Component component) {
+        VaadinRequest request = VaadinService.getCurrentRequest();
+        if (request != null) {
+            return request.getRemoteAddr();
+        }
+        UI ui = component.getUI();
+        return ui != null ? ui.getSession().getBrowser().getAddress() : null;
+    }
+
+    void register(VaadinSession session) {
+        session.lock();
+        try {
+            if (session.getAttribute(SESSION_MARKER) == null) {
+                session.addRequestHandler(REQUEST_HANDLER);
+                session.setAttribute(SESSION_MARKER, Boolean.TRUE);
+            }
+        } finally {
+            session.unlock();
+        }
+    }
+
+    /**
+     * Handles the POST requests of the login forms in a session. The handler is stateless, so a deserialized
+     * session refers to the shared instance again.
+     */
+    private static class LoginRequestHandler implements RequestHandler {
+        @Override
+        public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+            if (isLoginRequest(request.getPathInfo())) {
+                LoginMetrics.getInstance().requestHandlerHit();
+                if (request.getParameter(LoginFormConnector.LOGIN_ON_SUBMIT_PARAMETER) != null) {
+                    loginOnSubmit(session, request);
+                }
+                response.setContentType(LOGIN_RESPONSE_CONTENT_TYPE);
+                response.setCacheTime(-1);
+                response.setHeader("Content-Length", LOGIN_RESPONSE_LENGTH);
+                response.getOutputStream().write(LOGIN_RESPONSE);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private Object readResolve() {
+            return REQUEST_HANDLER;
+        }
+    }
+}
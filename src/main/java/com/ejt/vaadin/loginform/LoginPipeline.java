@@ -0,0 +1,504 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.audit.AuditOutcome;
+import com.ejt.vaadin.loginform.audit.LoginAuditLog;
+import com.ejt.vaadin.loginform.metrics.LoginMetrics;
+import com.ejt.vaadin.loginform.shared.LoginFieldValidation;
+import com.ejt.vaadin.loginform.shared.LoginOutcome;
+import com.vaadin.server.ErrorEvent;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.UI;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The steps of a login that are shared by {@link LoginForm} and {@link LiteLoginForm}: metrics, validation,
+ * throttling, the audit log and the authentication, which runs on the login executor if one has been set.
+ * The forms plug in their client communication and their login events by implementing the abstract methods.
+ * <p/>
+ * The login listeners of both forms are kept here in a copy-on-write array and are called directly, not through
+ * the reflective event router of the component, like the stage handlers.
+ * <p/>
+ * The collaborators of a form are not serialized, like the handlers of the forms. If a form has no collaborator of
+ * its own, the one of the {@link LoginFormSupport} of its service is used, so that collaborators that have been set
+ * for the service are available again after the session has been deserialized on another node.
+ */
+abstract class LoginPipeline implements Serializable {
+
+    private static final LoginForm.LoginListener[] NO_LOGIN_LISTENERS = new LoginForm.LoginListener[0];
+
+    private final AbstractComponent form;
+    private LoginForm.LoginListener[] loginListeners = NO_LOGIN_LISTENERS;
+
+    private transient Authenticator authenticator;
+    private transient LoginThrottle loginThrottle;
+    private transient Executor loginExecutor;
+    private transient LoginAuditLog auditLog;
+    private transient Set<AsyncLogin> pendingLogins;
+    private transient boolean loginConfirmed;
+    private transient LoginFormSupport support;
+
+    LoginPipeline(AbstractComponent form) {
+        this.form = form;
+    }
+
+    abstract LoginFieldValidation getUserNameValidation();
+
+    abstract LoginFieldValidation getPasswordValidation();
+
+    abstract void loginThrottled(String userName, long retryAfterMillis);
+
+    abstract void loginRejected(String userName);
+
+    abstract void sendLoginOutcome(LoginOutcome outcome, String message);
+
+    /**
+     * Fires the login event of the form.
+     *
+     * @param async  {@code true} if the login has been completed on the login executor
+     * @param result the result of the async login handler
+     */
+    abstract void login(String userName, String password, AuthenticationResult authentication, boolean async,
+                        Object result);
+
+    /**
+     * Called when an authenticator has reported a successful login and the login listeners have been called.
+     */
+    void authenticated(AuthenticationResult authentication) {
+    }
+
+    void addLoginListener(LoginForm.LoginListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        if (indexOfLoginListener(listener) < 0) {
+            // copy on write, so that a listener can remove itself while the listeners are called
+            LoginForm.LoginListener[] newLoginListeners = new LoginForm.LoginListener[loginListeners.length + 1];
+            System.arraycopy(loginListeners, 0, newLoginListeners, 0, loginListeners.length);
+            newLoginListeners[loginListeners.length] = listener;
+            loginListeners = newLoginListeners;
+        }
+    }
+
+    void removeLoginListener(LoginForm.LoginListener listener) {
+        int index = indexOfLoginListener(listener);
+        if (index >= 0) {
+            LoginForm.LoginListener[] newLoginListeners = new LoginForm.LoginListener[loginListeners.length - 1];
+            System.arraycopy(loginListeners, 0, newLoginListeners, 0, index);
+            System.arraycopy(loginListeners, index + 1, newLoginListeners, index, newLoginListeners.length - index);
+            loginListeners = newLoginListeners.length > 0 ? newLoginListeners : NO_LOGIN_LISTENERS;
+        }
+    }
+
+    private int indexOfLoginListener(LoginForm.LoginListener listener) {
+        for (int i = 0; i < loginListeners.length; i++) {
+            if (loginListeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Calls the login listeners in the order in which they have been added. Exceptions of a listener are not wrapped
+     * and stop the dispatch.
+     */
+    void fireLogin(LoginForm.LoginEvent event) {
+        for (LoginForm.LoginListener listener : loginListeners) {
+            listener.onLogin(event);
+        }
+    }
+
+    /**
+     * Records that the login listeners have confirmed a successful login. Only calls during the dispatch of the
+     * login event are taken into account.
+     */
+    void confirmLogin() {
+        loginConfirmed = true;
+    }
+
+    /**
+     * Called when a login has been started on the login executor.
+     */
+    void loginAccepted() {
+    }
+
+    /**
+     * Called after the login listeners have been called for a login that has been started with a context.
+     */
+    void loginFinished(LoginContext context) {
+    }
+
+    /**
+     * Counts the attempt and checks the validation rules and the throttle. Failed checks are reported to the client.
+     *
+     * @return {@code true} if the login may proceed
+     */
+    boolean begin(String userName, String password) {
+        LoginMetrics metrics = LoginMetrics.getInstance();
+        metrics.loginAttempted();
+        LoginFieldValidation invalid = validate(userName, password);
+        if (invalid != null) {
+            // the client checks the same rules, so this only happens with a modified client
+            metrics.loginFailed();
+            audit(userName, AuditOutcome.FAILURE);
+            sendLoginOutcome(LoginOutcome.FAILURE, invalid.message);
+            return false;
+        }
+        LoginThrottle loginThrottle = getLoginThrottle();
+        if (loginThrottle != null) {
+            long retryAfterMillis = loginThrottle.tryAcquire(userName, LoginFormSupport.getClientAddress(form));
+            if (retryAfterMillis > 0) {
+                metrics.loginThrottled();
+                audit(userName, AuditOutcome.THROTTLED);
+                loginThrottled(userName, retryAfterMillis);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LoginFieldValidation validate(String userName, String password) {
+        LoginFieldValidation userNameValidation = getUserNameValidation();
+        if (!isValid(userName, userNameValidation)) {
+            return userNameValidation;
+        }
+        LoginFieldValidation passwordValidation = getPasswordValidation();
+        if (!isValid(password, passwordValidation)) {
+            return passwordValidation;
+        }
+        return null;
+    }
+
+    private static boolean isValid(String value, LoginFieldValidation validation) {
+        return validation == null || validation.isLengthValid(value) &&
+                (!validation.hasPattern(value) || Pattern.matches(validation.pattern, value));
+    }
+
+    /**
+     * Checks the pattern of validation rules before they are sent to the client.
+     *
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static void checkPattern(LoginFieldValidation validation) {
+        if (validation != null && validation.pattern != null) {
+            try {
+                Pattern.compile(validation.pattern);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid pattern " + validation.pattern, e);
+            }
+        }
+    }
+
+    /**
+     * Authenticates and fires the login event, on the login executor if one has been set and there is work for it.
+     * A result from an authentication stage handler in the context takes precedence over the authenticator.
+     *
+     * @param context the context of the login or {@code null}
+     * @param handler the async login handler or {@code null}
+     */
+    void authenticate(String userName, String password, LoginContext context, LoginForm.AsyncLoginHandler handler) {
+        Authenticator authenticator = getAuthenticator();
+        if (getLoginExecutor() != null && (handler != null || authenticator != null)) {
+            try {
+                loginAsync(userName, password, context, handler);
+            } catch (RejectedExecutionException e) {
+                reject(userName);
+                return;
+            }
+            loginAccepted();
+            sendLoginOutcome(LoginOutcome.PENDING, null);
+        } else {
+            AuthenticationResult authentication = context != null ? context.getAuthenticationResult() : null;
+            if (authentication == null && authenticator != null) {
+                authentication = authenticator.authenticate(userName, password);
+                if (context != null) {
+                    context.setAuthenticationResult(authentication);
+                }
+            }
+            complete(userName, password, authentication, false, null);
+            loginFinished(context);
+        }
+    }
+
+    /**
+     * Starts the authenticator and the async login handler on the login executor.
+     *
+     * @throws RejectedExecutionException if the login executor is saturated
+     */
+    Future<Object> loginAsync(String userName, String password, LoginContext context,
+                              LoginForm.AsyncLoginHandler handler) {
+        UI ui = form.getUI();
+        if (ui == null) {
+            throw new IllegalStateException("The login form is not attached");
+        }
+        AuthenticationResult authentication = context != null ? context.getAuthenticationResult() : null;
+        AsyncLoginWork work = authentication != null ?
+                new AsyncLoginWork(null, handler, userName, password, authentication) :
+                new AsyncLoginWork(getAuthenticator(), handler, userName, password, null);
+        AsyncLogin asyncLogin = new AsyncLogin(ui, work, context);
+        getPendingLoginSet().add(asyncLogin);
+        try {
+            getLoginExecutor().execute(asyncLogin);
+        } catch (RejectedExecutionException e) {
+            getPendingLoginSet().remove(asyncLogin);
+            throw e;
+        }
+        return asyncLogin;
+    }
+
+    /**
+     * Reports a login that has been rejected by the saturated login executor.
+     */
+    void reject(String userName) {
+        LoginThrottle loginThrottle = getLoginThrottle();
+        if (loginThrottle != null) {
+            // the attempt has not been processed and will be retried, so it must not count against the throttle
+            loginThrottle.release(userName, LoginFormSupport.getClientAddress(form));
+        }
+        LoginMetrics.getInstance().loginRejected();
+        audit(userName, AuditOutcome.REJECTED);
+        loginRejected(userName);
+    }
+
+    /**
+     * Reports a login that has been stopped before the login event, for example by a stage handler.
+     */
+    void fail(String userName, AuditOutcome outcome, String message) {
+        LoginMetrics.getInstance().loginFailed();
+        audit(userName, outcome);
+        sendLoginOutcome(LoginOutcome.FAILURE, message);
+    }
+
+    private void complete(String userName, String password, AuthenticationResult authentication, boolean async,
+                          Object result) {
+        LoginMetrics metrics = LoginMetrics.getInstance();
+        long startTime = System.nanoTime();
+        boolean succeeded = false;
+        loginConfirmed = false;
+        try {
+            login(userName, password, authentication, async, result);
+            succeeded = true;
+        } finally {
+            metrics.getListenerTime().recordSince(startTime);
+            if (!succeeded) {
+                metrics.loginFailed();
+                audit(userName, AuditOutcome.ERROR);
+            } else if (authentication != null ? authentication.isSuccess() : loginConfirmed) {
+                metrics.loginSucceeded();
+                audit(userName, AuditOutcome.SUCCESS);
+            } else if (authentication != null) {
+                metrics.loginFailed();
+                audit(userName, AuditOutcome.FAILURE);
+            } else {
+                // without an authenticator, returning from the listeners does not mean that the credentials were valid
+                metrics.loginUnverified();
+                audit(userName, AuditOutcome.UNVERIFIED);
+            }
+            loginConfirmed = false;
+        }
+        if (authentication != null) {
+            if (authentication.isSuccess()) {
+                authenticated(authentication);
+                sendLoginOutcome(LoginOutcome.SUCCESS, authentication.getMessage());
+            } else {
+                sendLoginOutcome(LoginOutcome.FAILURE, authentication.getMessage());
+            }
+        }
+    }
+
+    void audit(String userName, AuditOutcome outcome) {
+        LoginAuditLog auditLog = getAuditLog();
+        if (auditLog != null) {
+            auditLog.record(userName, LoginFormSupport.getClientAddress(form), outcome);
+        }
+    }
+
+    Collection<Future<Object>> getPendingLogins() {
+        return Collections.<Future<Object>>unmodifiableList(new ArrayList<Future<Object>>(getPendingLoginSet()));
+    }
+
+    private Set<AsyncLogin> getPendingLoginSet() {
+        if (pendingLogins == null) {
+            pendingLogins = Collections.newSetFromMap(new ConcurrentHashMap<AsyncLogin, Boolean>());
+        }
+        return pendingLogins;
+    }
+
+    /**
+     * Returns the support of the service of the form, which provides the collaborators that have not been set for
+     * the form.
+     *
+     * @return the support or {@code null} if the form is not attached and there is no current service
+     */
+    private LoginFormSupport getSupport() {
+        if (support == null) {
+            VaadinSession session = form.getSession();
+            VaadinService service = session != null ? session.getService() : VaadinService.getCurrent();
+            if (service != null) {
+                support = LoginFormSupport.install(service);
+            }
+        }
+        return support;
+    }
+
+    Authenticator getAuthenticator() {
+        if (authenticator != null) {
+            return authenticator;
+        }
+        LoginFormSupport support = getSupport();
+        return support != null ? support.getAuthenticator() : null;
+    }
+
+    void setAuthenticator(Authenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    LoginThrottle getLoginThrottle() {
+        if (loginThrottle != null) {
+            return loginThrottle;
+        }
+        LoginFormSupport support = getSupport();
+        return support != null ? support.getLoginThrottle() : null;
+    }
+
+    void setLoginThrottle(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
+    }
+
+    Executor getLoginExecutor() {
+        if (loginExecutor != null) {
+            return loginExecutor;
+        }
+        LoginFormSupport support = getSupport();
+        return support != null ? support.getLoginExecutor() : null;
+    }
+
+    void setLoginExecutor(Executor loginExecutor) {
+        this.loginExecutor = loginExecutor;
+    }
+
+    LoginAuditLog getAuditLog() {
+        if (auditLog != null) {
+            return auditLog;
+        }
+        LoginFormSupport support = getSupport();
+        return support != null ? support.getAuditLog() : null;
+    }
+
+    void setAuditLog(LoginAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Pushes the outcome of an asynchronous login right away. With automatic push, this happens when the
+     * session is unlocked.
+     */
+    private static void pushIfManual(UI ui) {
+        if (ui.getPushConfiguration().getPushMode() == PushMode.MANUAL) {
+            ui.push();
+        }
+    }
+
+    private static class AsyncLoginWork implements Callable<Object> {
+
+        private final Authenticator authenticator;
+        private final LoginForm.AsyncLoginHandler handler;
+        private final String userName;
+        private final String password;
+        private volatile AuthenticationResult authentication;
+
+        private AsyncLoginWork(Authenticator authenticator, LoginForm.AsyncLoginHandler handler, String userName,
+                               String password, AuthenticationResult authentication) {
+            this.authenticator = authenticator;
+            this.handler = handler;
+            this.userName = userName;
+            this.password = password;
+            this.authentication = authentication;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            long startTime = System.nanoTime();
+            try {
+                if (authenticator != null) {
+                    authentication = authenticator.authenticate(userName, password);
+                }
+                return handler != null ? handler.handleLogin(userName, password) : null;
+            } finally {
+                LoginMetrics.getInstance().getAsyncHandlerTime().recordSince(startTime);
+            }
+        }
+    }
+
+    private class AsyncLogin extends FutureTask<Object> {
+
+        private final UI ui;
+        private final AsyncLoginWork work;
+        private final LoginContext context;
+
+        private AsyncLogin(UI ui, AsyncLoginWork work, LoginContext context) {
+            super(work);
+            this.ui = ui;
+            this.work = work;
+            this.context = context;
+        }
+
+        @Override
+        protected void done() {
+            getPendingLoginSet().remove(this);
+            if (isCancelled()) {
+                return;
+            }
+            ui.access(new Runnable() {
+                @Override
+                public void run() {
+                    Object result;
+                    try {
+                        result = get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException e) {
+                        fail(work.userName, AuditOutcome.ERROR, null);
+                        pushIfManual(ui);
+                        ErrorEvent.findErrorHandler(form).error(new ErrorEvent(e.getCause()));
+                        return;
+                    }
+                    complete(work.userName, work.password, work.authentication, true, result);
+                    pushIfManual(ui);
+                    if (context != null) {
+                        context.setAuthenticationResult(work.authentication);
+                        loginFinished(context);
+                    }
+                }
+            });
+        }
+    }
+}
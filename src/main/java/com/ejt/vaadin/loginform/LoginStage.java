@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+/**
+ * The stages of a login in the order in which their {@link LoginStageHandler}s are called.
+ *
+ * @see LoginForm#addLoginStageHandler(LoginStage, LoginStageHandler)
+ */
+public enum LoginStage {
+
+    /**
+     * Checks the entered values before any credentials are verified, for example the format of the user name.
+     */
+    PRE_VALIDATION,
+
+    /**
+     * Verifies the credentials. A handler in this stage can set the authentication result with
+     * {@link LoginContext#setAuthenticationResult(AuthenticationResult)}. The {@link Authenticator} of the login
+     * form is only called if no handler has set a result.
+     */
+    AUTHENTICATION,
+
+    /**
+     * Runs after the login listeners have been notified, for example to load user settings or to write an audit log.
+     */
+    POST_LOGIN
+}
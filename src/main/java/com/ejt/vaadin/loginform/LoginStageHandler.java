@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import java.io.Serializable;
+
+/**
+ * Handles one stage of a login. Handlers are added with
+ * {@link LoginForm#addLoginStageHandler(LoginStage, LoginStageHandler)} and are called directly without reflection,
+ * stage by stage in the order in which they have been added. A handler can stop the login with
+ * {@link LoginContext#stop()}, in which case no further handlers and no login listeners are called.
+ * <p/>
+ * Handlers are called with the session lock held. To call a handler on the login executor instead, implement
+ * {@link AsyncLoginStageHandler}.
+ */
+public interface LoginStageHandler extends Serializable {
+
+    /**
+     * Handles the login in the stage that is returned by {@link LoginContext#getStage()}.
+     *
+     * @param context the context of the current login
+     * @throws Exception if the login cannot be processed
+     */
+    void handleLogin(LoginContext context) throws Exception;
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+/**
+ * A component that logs in with the credentials of a POST request that has been routed to it by the
+ * {@link LoginFormSupport} request handler.
+ */
+interface LoginSubmitTarget {
+
+    /**
+     * Logs in with the credentials of a POST request, if the token matches the token of the component.
+     *
+     * @param token    the token from the request
+     * @param userName the user name from the request
+     * @param password the password from the request
+     */
+    void loginOnSubmit(String token, String userName, String password);
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of login attempts per user name and per client address with token buckets.
+ * Set with {@link LoginForm#setLoginThrottle(LoginThrottle)}. A single instance is usually shared by all
+ * login forms of an application.
+ * <p/>
+ * Each bucket is a single atomic value that is updated with compare-and-set according to the
+ * generic cell rate algorithm, so checking an attempt never locks. The buckets are stored in several independent
+ * stripes with a bounded size. Only buckets that have been refilled completely are evicted, since removing them does
+ * not change the outcome of future attempts. When a stripe is full of buckets that are still throttling, new keys
+ * share a single overflow bucket of the stripe until buckets have been refilled. A flood of new user names or
+ * addresses therefore neither resets the buckets of attacked accounts nor escapes throttling. A full stripe is
+ * scanned at most every {@value #MIN_EVICTION_INTERVAL_MILLIS} ms and not before its first bucket is refilled.
+ */
+public class LoginThrottle {
+
+    static final long MIN_EVICTION_INTERVAL_MILLIS = 100;
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final BucketMap userNameBuckets;
+    private final BucketMap addressBuckets;
+
+    /**
+     * Creates a throttle.
+     *
+     * @param burst             the number of attempts that are allowed in quick succession
+     * @param attemptsPerMinute the sustained number of attempts per minute
+     * @param maxEntries        the maximum number of user names and client addresses that are tracked each
+     */
+    public LoginThrottle(int burst, double attemptsPerMinute, int maxEntries) {
+        if (burst < 1 || attemptsPerMinute <= 0 || maxEntries < 1) {
+            throw new IllegalArgumentException("burst, attemptsPerMinute and maxEntries must be positive");
+        }
+        emissionIntervalNanos = (long)(TimeUnit.MINUTES.toNanos(1) / attemptsPerMinute);
+        burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        long now = System.nanoTime();
+        userNameBuckets = new BucketMap(maxEntries, now);
+        addressBuckets = new BucketMap(maxEntries, now);
+    }
+
+    /**
+     * Checks if a login attempt is permitted and consumes a token from the buckets of the client address
+     * and the user name.
+     *
+     * @param userName the user name, may be {@code null}
+     * @param address  the client address, may be {@code null}
+     * @return 0 if the attempt is permitted, otherwise the time in milliseconds until the next attempt is permitted
+     */
+    public long tryAcquire(String userName, String address) {
+        long now = System.nanoTime();
+        long waitNanos = 0;
+        if (address != null) {
+            waitNanos = addressBuckets.tryAcquire(address, now);
+        }
+        if (waitNanos == 0 && userName != null) {
+            waitNanos = userNameBuckets.tryAcquire(userName, now);
+        }
+        return waitNanos == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+
+    /**
+     * Returns the tokens that have been consumed by a permitted attempt that has not been processed, for example
+     * because the login executor was saturated and the client will retry the attempt.
+     *
+     * @param userName the user name that has been passed to {@link #tryAcquire(String, String)}
+     * @param address  the client address that has been passed to {@link #tryAcquire(String, String)}
+     */
+    public void release(String userName, String address) {
+        long now = System.nanoTime();
+        if (address != null) {
+            addressBuckets.release(address, now);
+        }
+        if (userName != null) {
+            userNameBuckets.release(userName, now);
+        }
+    }
+
+    /**
+     * Returns the number of tracked user names and client addresses.
+     *
+     * @return the number of buckets
+     */
+    public int size() {
+        return userNameBuckets.size() + addressBuckets.size();
+    }
+
+    private long tryAcquire(AtomicLong bucket, long now) {
+        while (true) {
+            long theoreticalArrival = bucket.get();
+            long start = theoreticalArrival - now > 0 ? theoreticalArrival : now;
+            long excess = start - now - burstToleranceNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (bucket.compareAndSet(theoreticalArrival, start + emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private void release(AtomicLong bucket, long now) {
+        while (true) {
+            long theoreticalArrival = bucket.get();
+            if (theoreticalArrival - now <= 0) {
+                return;
+            }
+            long released = theoreticalArrival - emissionIntervalNanos;
+            if (bucket.compareAndSet(theoreticalArrival, released - now > 0 ? released : now)) {
+                return;
+            }
+        }
+    }
+
+    private class BucketMap {
+
+        private final int stripeMask;
+        private final int maxEntriesPerStripe;
+        private final Stripe[] stripes;
+
+        private BucketMap(int maxEntries, long now) {
+            int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(maxEntries / 16, 64)));
+            stripeMask = stripeCount - 1;
+            maxEntriesPerStripe = Math.max(1, maxEntries / stripeCount);
+            stripes = new Stripe[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new Stripe(now);
+            }
+        }
+
+        long tryAcquire(String key, long now) {
+            Stripe stripe = getStripe(key);
+            AtomicLong bucket = stripe.buckets.get(key);
+            if (bucket == null) {
+                bucket = stripe.addBucket(key, now, maxEntriesPerStripe);
+            }
+            return LoginThrottle.this.tryAcquire(bucket, now);
+        }
+
+        void release(String key, long now) {
+            Stripe stripe = getStripe(key);
+            AtomicLong bucket = stripe.buckets.get(key);
+            if (bucket == null) {
+                // the attempt has been counted in the overflow bucket
+                bucket = stripe.overflowBucket;
+            }
+            LoginThrottle.this.release(bucket, now);
+        }
+
+        private Stripe getStripe(String key) {
+            int hash = key.hashCode();
+            return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.buckets.size();
+            }
+            return size;
+        }
+    }
+
+    private static class Stripe {
+
+        private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+        private final AtomicLong overflowBucket;
+        private final AtomicLong nextEviction;
+        private final AtomicInteger reservedEntries = new AtomicInteger();
+
+        private Stripe(long now) {
+            overflowBucket = new AtomicLong(now);
+            nextEviction = new AtomicLong(now);
+        }
+
+        /**
+         * Adds a bucket for a new key or returns the overflow bucket if the stripe is full. A slot is reserved
+         * before the bucket is added, so that concurrent threads cannot exceed the maximum size.
+         */
+        AtomicLong addBucket(String key, long now, int maxEntries) {
+            if (!reserveEntry(maxEntries)) {
+                evictRefilled(now);
+                if (!reserveEntry(maxEntries)) {
+                    return overflowBucket;
+                }
+            }
+            AtomicLong newBucket = new AtomicLong(now);
+            AtomicLong bucket = buckets.putIfAbsent(key, newBucket);
+            if (bucket != null) {
+                reservedEntries.decrementAndGet();
+                return bucket;
+            }
+            return newBucket;
+        }
+
+        private boolean reserveEntry(int maxEntries) {
+            while (true) {
+                int reserved = reservedEntries.get();
+                if (reserved >= maxEntries) {
+                    return false;
+                }
+                if (reservedEntries.compareAndSet(reserved, reserved + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Removes the buckets that have been refilled completely. Only one thread scans a stripe at a time, and
+         * the next scan is postponed until the first remaining bucket is refilled.
+         */
+        void evictRefilled(long now) {
+            long next = nextEviction.get();
+            long minNextEviction = now + TimeUnit.MILLISECONDS.toNanos(MIN_EVICTION_INTERVAL_MILLIS);
+            if (now - next < 0 || !nextEviction.compareAndSet(next, minNextEviction)) {
+                return;
+            }
+            long earliestRefill = 0;
+            boolean remaining = false;
+            for (Iterator<AtomicLong> iterator = buckets.values().iterator(); iterator.hasNext(); ) {
+                long theoreticalArrival = iterator.next().get();
+                if (theoreticalArrival - now <= 0) {
+                    iterator.remove();
+                    reservedEntries.decrementAndGet();
+                } else if (!remaining || theoreticalArrival - earliestRefill < 0) {
+                    earliestRefill = theoreticalArrival;
+                    remaining = true;
+                }
+            }
+            if (remaining && earliestRefill - minNextEviction > 0) {
+                nextEviction.compareAndSet(minNextEviction, earliestRefill);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.metrics.LoginMetrics;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedSession;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sessions in which a login form with a pre-login timeout is displayed and nobody has logged in yet. Such sessions
+ * are typically created by crawlers and monitoring probes. They get a short idle timeout, and a sweeper on a daemon
+ * thread invalidates them as soon as the timeout has elapsed instead of waiting for the container.
+ * <p/>
+ * There is one instance per {@link com.vaadin.server.VaadinService}, owned by its {@link LoginFormSupport}. The
+ * sweeper is started with the first pre-login session and stopped with {@link #shutdown()} when the service is
+ * destroyed, so a redeployed application neither keeps the thread nor the sessions of the previous deployment.
+ * <p/>
+ * The sweeper only reads the last access time of the HTTP session and skips sessions that are locked by a request,
+ * so it never waits for a session lock. The heap that is reclaimed by an eviction is estimated from the serialized
+ * size of every {@value #SIZE_SAMPLE_INTERVAL}th evicted session, so that the sweeper does not serialize each
+ * session while holding its lock.
+ */
+final class PreLoginSessions {
+
+    static final long SWEEP_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    static final int SIZE_SAMPLE_INTERVAL = 32;
+
+    private static final String LOGGED_IN_ATTRIBUTE = PreLoginSessions.class.getName() + ".loggedIn";
+    private static final Logger LOGGER = Logger.getLogger(PreLoginSessions.class.getName());
+
+    private final Map<VaadinSession, Entry> sessions = new ConcurrentHashMap<VaadinSession, Entry>();
+    private ScheduledExecutorService sweepExecutor;
+    private boolean shutdown;
+
+    // only accessed by the sweeper thread
+    private long evictedCount;
+    private long sampledSize;
+
+    /**
+     * Marks a session as a pre-login session and sets its idle timeout. Marking a session again only
+     * changes the timeout. Sessions in which a login has succeeded are not marked again.
+     *
+     * @param session            the session, must be locked
+     * @param idleTimeoutSeconds the idle timeout in seconds
+     * @return {@code true} if the session is a pre-login session
+     */
+    boolean mark(VaadinSession session, int idleTimeoutSeconds) {
+        WrappedSession wrappedSession = session.getSession();
+        if (wrappedSession == null || session.getAttribute(LOGGED_IN_ATTRIBUTE) != null || !startSweeper()) {
+            return false;
+        }
+        Entry entry = sessions.get(session);
+        if (entry == null) {
+            entry = new Entry(wrappedSession, wrappedSession.getMaxInactiveInterval());
+            sessions.put(session, entry);
+        }
+        entry.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        wrappedSession.setMaxInactiveInterval(idleTimeoutSeconds);
+        return true;
+    }
+
+    /**
+     * Removes the pre-login mark from a session after a successful login and prevents that it is marked again.
+     *
+     * @param session the session, must be locked
+     */
+    void loginSucceeded(VaadinSession session) {
+        session.setAttribute(LOGGED_IN_ATTRIBUTE, Boolean.TRUE);
+        unmark(session);
+    }
+
+    /**
+     * Removes the pre-login mark from a session and restores its original idle timeout.
+     *
+     * @param session the session
+     */
+    void unmark(VaadinSession session) {
+        Entry entry = sessions.remove(session);
+        if (entry != null) {
+            try {
+                entry.wrappedSession.setMaxInactiveInterval(entry.originalMaxInactiveInterval);
+            } catch (IllegalStateException e) {
+                // already invalidated
+            }
+        }
+    }
+
+    /**
+     * Forgets a session that has been destroyed.
+     *
+     * @param session the session
+     */
+    void remove(VaadinSession session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * Stops the sweeper and forgets all sessions. Sessions cannot be marked afterwards.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdownNow();
+            sweepExecutor = null;
+        }
+        sessions.clear();
+    }
+
+    private synchronized boolean startSweeper() {
+        if (shutdown) {
+            return false;
+        }
+        if (sweepExecutor == null) {
+            sweepExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "login-session-sweeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sweepExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sweep();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Sweeping pre-login sessions failed", e);
+                    }
+                }
+            }, SWEEP_PERIOD_MILLIS, SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Invalidates all pre-login sessions whose idle timeout has elapsed. Called by the sweeper thread.
+     *
+     * @return the number of evicted sessions
+     */
+    int sweep() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Map.Entry<VaadinSession, Entry> mapEntry : sessions.entrySet()) {
+            VaadinSession session = mapEntry.getKey();
+            Entry entry = mapEntry.getValue();
+            try {
+                if (now - entry.wrappedSession.getLastAccessedTime() >= entry.idleTimeoutMillis && evict(session, entry)) {
+                    evicted++;
+                }
+            } catch (IllegalStateException e) {
+                // invalidated by the container
+                sessions.remove(session);
+            }
+        }
+        return evicted;
+    }
+
+    private boolean evict(VaadinSession session, Entry entry) {
+        Lock lock = session.getLockInstance();
+        if (lock == null || !lock.tryLock()) {
+            // a request is being processed, so the session is not idle
+            return false;
+        }
+        try {
+            if (sessions.get(session) != entry ||
+                    System.currentTimeMillis() - entry.wrappedSession.getLastAccessedTime() < entry.idleTimeoutMillis) {
+                return false;
+            }
+            if (evictedCount++ % SIZE_SAMPLE_INTERVAL == 0) {
+                sampledSize = estimateSize(session);
+            }
+        } finally {
+            // nothing has been changed, so there are no pending accesses or changes to push
+            lock.unlock();
+        }
+        sessions.remove(session);
+        try {
+            entry.wrappedSession.invalidate();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+        LoginMetrics.getInstance().preLoginSessionEvicted(sampledSize);
+        return true;
+    }
+
+    private static long estimateSize(VaadinSession session) {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            ObjectOutputStream objectOut = new ObjectOutputStream(out);
+            objectOut.writeObject(session);
+            objectOut.close();
+        } catch (IOException e) {
+            // not serializable, the size is unknown
+            return 0;
+        }
+        return out.count;
+    }
+
+    private static class Entry {
+        private final WrappedSession wrappedSession;
+        private final int originalMaxInactiveInterval;
+        private volatile long idleTimeoutMillis;
+
+        private Entry(WrappedSession wrappedSession, int originalMaxInactiveInterval) {
+            this.wrappedSession = wrappedSession;
+            this.originalMaxInactiveInterval = originalMaxInactiveInterval;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import java.io.Serializable;
+
+/**
+ * Prepares a login as soon as the user has entered the user name, for example by fetching the user record from a
+ * directory while the user types the password. Set with
+ * {@link LoginForm#setPrepareLoginHandler(PrepareLoginHandler)}. The result can be retrieved during the login with
+ * {@link LoginForm#getPreparedLogin(String)}.
+ */
+public interface PrepareLoginHandler extends Serializable {
+
+    /**
+     * Called when the user name field loses the focus or when the user has stopped typing the user name. This method
+     * is called on the login executor without holding the session lock, so the implementation must not access any
+     * components. Without a login executor, it is not called.
+     *
+     * @param userName the user name, never empty
+     * @return a result that is available to the login with the same user name
+     * @throws Exception if the login cannot be prepared. The login then proceeds without a prepared result.
+     */
+    Object prepareLogin(String userName) throws Exception;
+}
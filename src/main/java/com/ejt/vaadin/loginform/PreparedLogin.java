@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import com.ejt.vaadin.loginform.metrics.LoginMetrics;
+import com.vaadin.server.VaadinSession;
+
+import java.io.Serializable;
+import java.util.concurrent.*;
+
+/**
+ * The result of a {@link PrepareLoginHandler} for one user name. Each session has a single slot for a prepared
+ * login, so a new user name replaces the previous preparation. A prepared login can only be used once and
+ * expires after {@link #MAX_AGE_MILLIS}. The slot is stored as a session attribute and must only be accessed
+ * with the session lock held. The result is not serialized.
+ * <p/>
+ * Preparations only run on the login executor, never under the session lock, and each session can start at most
+ * {@value #MAX_PREPARATIONS_PER_WINDOW} preparations per {@link #WINDOW_MILLIS}, so that a client cannot use the
+ * unauthenticated prepare RPC to run the handler at an arbitrary rate.
+ */
+final class PreparedLogin implements Serializable {
+
+    static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final int MAX_PREPARATIONS_PER_WINDOW = 10;
+    static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String userName;
+    private final long creationTime;
+    private final long windowStart;
+    private final int windowCount;
+    private final transient FutureTask<Object> task;
+    private volatile long preparationNanos;
+
+    private PreparedLogin(String userName, final PrepareLoginHandler handler, long creationTime, long windowStart,
+                          int windowCount) {
+        this.userName = userName;
+        this.creationTime = creationTime;
+        this.windowStart = windowStart;
+        this.windowCount = windowCount;
+        this.task = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                long startTime = System.nanoTime();
+                try {
+                    return handler.prepareLogin(PreparedLogin.this.userName);
+                } finally {
+                    preparationNanos = System.nanoTime() - startTime;
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts to prepare the login for a user name on the executor unless it is already being prepared or the
+     * session has exceeded its rate of preparations.
+     *
+     * @param session  the session, must be locked
+     * @param userName the user name
+     * @param handler  the handler
+     * @param executor the executor, the handler is never called on the calling thread
+     */
+    static void start(VaadinSession session, String userName, PrepareLoginHandler handler, Executor executor) {
+        PreparedLogin current = session.getAttribute(PreparedLogin.class);
+        long now = System.currentTimeMillis();
+        long windowStart = now;
+        int windowCount = 1;
+        if (current != null) {
+            if (current.userName.equals(userName) && current.task != null && !current.isExpired()) {
+                return;
+            }
+            if (now - current.windowStart < WINDOW_MILLIS) {
+                if (current.windowCount >= MAX_PREPARATIONS_PER_WINDOW) {
+                    return;
+                }
+                windowStart = current.windowStart;
+                windowCount = current.windowCount + 1;
+            }
+            current.cancel();
+        }
+        PreparedLogin preparedLogin = new PreparedLogin(userName, handler, now, windowStart, windowCount);
+        session.setAttribute(PreparedLogin.class, preparedLogin);
+        try {
+            executor.execute(preparedLogin.task);
+        } catch (RejectedExecutionException e) {
+            // preparing is optional, the executor is reserved for logins when it is saturated. The cancelled
+            // preparation stays in the slot, so that it still counts against the rate of the session.
+            preparedLogin.cancel();
+            return;
+        }
+        LoginMetrics.getInstance().loginPrepared();
+    }
+
+    /**
+     * Removes the prepared login from the session and returns its result if it has been prepared successfully
+     * for the given user name. Does not wait for a preparation that is still running.
+     *
+     * @param session  the session, must be locked
+     * @param userName the user name of the login
+     * @return the result or {@code null}
+     */
+    static Object take(VaadinSession session, String userName) {
+        PreparedLogin preparedLogin = session.getAttribute(PreparedLogin.class);
+        LoginMetrics metrics = LoginMetrics.getInstance();
+        if (preparedLogin == null) {
+            return null;
+        }
+        session.setAttribute(PreparedLogin.class, null);
+        FutureTask<Object> task = preparedLogin.task;
+        if (task == null || !task.isDone() || !preparedLogin.userName.equals(userName) || preparedLogin.isExpired()) {
+            preparedLogin.cancel();
+            metrics.preparedLoginMissed();
+            return null;
+        }
+        try {
+            Object result = task.get();
+            metrics.preparedLoginUsed(preparedLogin.preparationNanos);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            // fall through
+        } catch (ExecutionException e) {
+            // fall through
+        }
+        metrics.preparedLoginMissed();
+        return null;
+    }
+
+    private boolean isExpired() {
+        return System.currentTimeMillis() - creationTime > MAX_AGE_MILLIS;
+    }
+
+    private void cancel() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.audit;
+
+/**
+ * The outcome of a login attempt in the audit log.
+ */
+public enum AuditOutcome {
+
+    /**
+     * The authenticator has reported a successful login or, without an authenticator, a login listener has called
+     * {@code loginSucceeded()} on the form.
+     */
+    SUCCESS,
+
+    /**
+     * The login listeners have completed without an authenticator and without calling {@code loginSucceeded()} on
+     * the form, so it is not known whether the credentials were valid.
+     */
+    UNVERIFIED,
+
+    /**
+     * The authentication has failed or a stage handler has stopped the login.
+     */
+    FAILURE,
+
+    /**
+     * The attempt has been rejected by the login throttle.
+     */
+    THROTTLED,
+
+    /**
+     * The attempt has been rejected because the login executor was saturated.
+     */
+    REJECTED,
+
+    /**
+     * The login has failed with an exception.
+     */
+    ERROR
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.audit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only audit log of login attempts. Share a single instance between all login forms and set it with
+ * {@link com.ejt.vaadin.loginform.LoginForm#setAuditLog(LoginAuditLog)}.
+ * <p/>
+ * {@link #record(String, String, AuditOutcome)} never blocks and never performs I/O. Records are put into a
+ * lock-free ring buffer and a background thread appends them in batches to a memory-mapped log file. A log file is
+ * rolled over to a new file when it reaches the maximum file size. Each instance starts with a new file, existing
+ * files are never modified.
+ * <p/>
+ * Flush policy: records are copied to the mapped file as soon as the writer thread has taken them from the buffer,
+ * which happens within a few milliseconds. The mapped file is forced to the storage device at most once per flush
+ * interval, when a file is rolled over and when the log is closed.
+ * <p/>
+ * Overflow policy: if the buffer is full because the writer cannot keep up, new records are dropped so that
+ * logins are never delayed. Dropped records are counted, and the writer appends a line with the number of dropped
+ * records at the position of the gap. Records that cannot be written because of an I/O error are counted and
+ * reported in the same way.
+ * <p/>
+ * Each line contains the time in UTC, the outcome, the client address and the user name, separated by tabs.
+ * Control characters in user names are replaced and long user names are truncated.
+ */
+public class LoginAuditLog implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private static final int CLOSED = 1 << 30;
+    private static final int BATCH_SIZE = 512;
+    private static final int MAX_USER_NAME_LENGTH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Logger LOGGER = Logger.getLogger(LoginAuditLog.class.getName());
+
+    private final File directory;
+    private final String baseName;
+    private final long maxFileSize;
+    private final long flushIntervalNanos;
+    private final AuditRingBuffer<Record> buffer;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong unreportedDroppedCount = new AtomicLong();
+    private final Thread writerThread;
+    // the CLOSED flag and the number of threads that are about to offer a record
+    private final AtomicInteger state = new AtomicInteger();
+    private volatile long writtenCount;
+    private volatile File currentFile;
+
+    // only accessed by the writer thread after construction
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private final StringBuilder line = new StringBuilder(128);
+    private RandomAccessFile file;
+    private MappedByteBuffer mappedBuffer;
+    private long lastForceTime = System.nanoTime();
+    private boolean unforced;
+
+    /**
+     * Creates an audit log with the default capacity, file size and flush interval.
+     *
+     * @param directory the directory for the log files
+     * @throws IOException if the first log file cannot be created
+     */
+    public LoginAuditLog(File directory) throws IOException {
+        this(directory, "login-audit", DEFAULT_CAPACITY, DEFAULT_MAX_FILE_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates an audit log and starts its writer thread.
+     *
+     * @param directory           the directory for the log files
+     * @param baseName            the prefix of the log file names
+     * @param capacity            the number of records that can be buffered, rounded up to the next power of two
+     * @param maxFileSize         the size in bytes after which a log file is rolled over
+     * @param flushIntervalMillis the maximum time in milliseconds between two forced writes to the storage device
+     * @throws IOException if the first log file cannot be created
+     */
+    public LoginAuditLog(File directory, String baseName, int capacity, long maxFileSize, long flushIntervalMillis)
+            throws IOException {
+        if (maxFileSize < 4096 || maxFileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxFileSize must be between 4096 and " + Integer.MAX_VALUE);
+        }
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("flushIntervalMillis must not be negative");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        this.maxFileSize = maxFileSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.buffer = new AuditRingBuffer<Record>(capacity);
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        openNextFile();
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "login-audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Records a login attempt. Can be called from any thread and does not block.
+     *
+     * @param userName      the user name
+     * @param clientAddress the address of the client or {@code null}
+     * @param outcome       the outcome
+     * @return {@code false} if the record has been dropped because the buffer is full or the log has been closed
+     */
+    public boolean record(String userName, String clientAddress, AuditOutcome outcome) {
+        if (enter()) {
+            try {
+                if (buffer.offer(new Record(System.currentTimeMillis(), userName, clientAddress, outcome))) {
+                    return true;
+                }
+            } finally {
+                state.decrementAndGet();
+            }
+        }
+        droppedCount.incrementAndGet();
+        unreportedDroppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Registers the calling thread as a producer, so that the writer does not stop before its record is in the buffer.
+     *
+     * @return {@code false} if the log has been closed
+     */
+    private boolean enter() {
+        while (true) {
+            int current = state.get();
+            if ((current & CLOSED) != 0) {
+                return false;
+            }
+            if (state.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records that have been dropped because the buffer was full or could not be written.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of records that have been written to log files.
+     *
+     * @return the number of written records
+     */
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Returns the file that records are currently appended to.
+     *
+     * @return the file
+     */
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    /**
+     * Writes all buffered records, forces them to the storage device and stops the writer thread.
+     * Records that are passed to {@link #record(String, String, AuditOutcome)} afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        while (true) {
+            int current = state.get();
+            if ((current & CLOSED) != 0 || state.compareAndSet(current, current | CLOSED)) {
+                break;
+            }
+        }
+        LockSupport.unpark(writerThread);
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+        while (true) {
+            // once the log is closed and no producer is left, no record can be added after the following drain
+            boolean closing = state.get() == CLOSED;
+            int count = buffer.drain(batch, BATCH_SIZE);
+            long dropped = unreportedDroppedCount.getAndSet(0);
+            int written = 0;
+            try {
+                if (dropped > 0) {
+                    writeDroppedMarker(dropped);
+                    dropped = 0;
+                }
+                for (Record record : batch) {
+                    writeRecord(record);
+                    written++;
+                }
+                if (unforced && (closing || System.nanoTime() - lastForceTime >= flushIntervalNanos)) {
+                    force();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not write login audit log " + currentFile, e);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Could not write login audit log " + currentFile, e);
+            }
+            writtenCount += written;
+            if (written < count) {
+                // the rest of the batch is lost, so it is reported with the next dropped marker
+                droppedCount.addAndGet(count - written);
+                dropped += count - written;
+            }
+            if (dropped > 0) {
+                unreportedDroppedCount.addAndGet(dropped);
+            }
+            batch.clear();
+            if (count == 0) {
+                if (closing) {
+                    closeFile();
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void writeRecord(Record record) throws IOException {
+        line.setLength(0);
+        line.append(timeFormat.format(new Date(record.time))).append('\t')
+                .append(record.outcome.name()).append('\t');
+        appendSanitized(record.clientAddress == null ? "-" : record.clientAddress);
+        line.append('\t');
+        appendSanitized(record.userName == null ? "" : record.userName);
+        line.append('\n');
+        writeLine();
+    }
+
+    private void writeDroppedMarker(long dropped) throws IOException {
+        line.setLength(0);
+        line.append(timeFormat.format(new Date())).append('\t').append("DROPPED").append('\t')
+                .append(dropped).append('\n');
+        writeLine();
+    }
+
+    private void appendSanitized(String value) {
+        int length = Math.min(value.length(), MAX_USER_NAME_LENGTH);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            line.append(Character.isISOControl(c) ? '?' : c);
+        }
+        if (value.length() > length) {
+            line.append("...");
+        }
+    }
+
+    private void writeLine() throws IOException {
+        byte[] bytes = line.toString().getBytes(UTF_8);
+        if (file == null) {
+            openNextFile();
+        } else if (bytes.length > mappedBuffer.remaining()) {
+            closeFile();
+            openNextFile();
+        }
+        mappedBuffer.put(bytes);
+        unforced = true;
+    }
+
+    private void force() {
+        if (mappedBuffer == null) {
+            return;
+        }
+        mappedBuffer.force();
+        unforced = false;
+        lastForceTime = System.nanoTime();
+    }
+
+    private void openNextFile() throws IOException {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        File nextFile = new File(directory, baseName + "-" + timestamp + ".log");
+        for (int i = 1; !nextFile.createNewFile(); i++) {
+            nextFile = new File(directory, baseName + "-" + timestamp + "-" + i + ".log");
+        }
+        file = new RandomAccessFile(nextFile, "rw");
+        mappedBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxFileSize);
+        currentFile = nextFile;
+    }
+
+    private void closeFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            force();
+            // remove the unused part of the mapping, this may fail on platforms that do not allow to truncate
+            // mapped files
+            try {
+                file.getChannel().truncate(mappedBuffer.position());
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not truncate login audit log " + currentFile, e);
+            }
+            file.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not close login audit log " + currentFile, e);
+        }
+        file = null;
+        mappedBuffer = null;
+    }
+
+    private static class Record {
+        private final long time;
+        private final String userName;
+        private final String clientAddress;
+        private final AuditOutcome outcome;
+
+        private Record(long time, String userName, String clientAddress, AuditOutcome outcome) {
+            this.time = time;
+            this.userName = userName;
+            this.clientAddress = clientAddress;
+            this.outcome = outcome;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the handlers that the login form has added to the widget of a field or button connector.
+ * The handlers are only added when the connector has been replaced, so that repeated state changes do not add
+ * another set of handlers each, which would submit the form several times for a single key press.
+ * <p/>
+ * Connectors and handler registrations are type parameters, so the wiring does not depend on GWT and can be tested
+ * on a plain JVM.
+ *
+ * @param <C> the connector type
+ * @param <R> the handler registration type
+ */
+public abstract class HandlerWiring<C, R> {
+
+    private final List<R> registrations = new ArrayList<R>();
+    private C connector;
+
+    /**
+     * Wires the handlers for a connector if it is not the connector that is currently wired. The handlers of the
+     * previous connector are removed first.
+     *
+     * @param newConnector the connector from the current state, may be {@code null}
+     * @return {@code true} if the connector has been replaced
+     */
+    public boolean update(C newConnector) {
+        if (newConnector == connector) {
+            return false;
+        }
+        removeHandlers();
+        connector = newConnector;
+        addHandlers(newConnector, registrations);
+        return true;
+    }
+
+    /**
+     * Removes all handlers, for example when the login form is unregistered.
+     */
+    public void clear() {
+        removeHandlers();
+        connector = null;
+    }
+
+    /**
+     * Returns the connector whose handlers are currently wired.
+     *
+     * @return the connector or {@code null}
+     */
+    public C getConnector() {
+        return connector;
+    }
+
+    /**
+     * Returns the number of handlers that are currently wired.
+     *
+     * @return the number of handler registrations
+     */
+    public int getHandlerCount() {
+        return registrations.size();
+    }
+
+    private void removeHandlers() {
+        for (R registration : registrations) {
+            removeHandler(registration);
+        }
+        registrations.clear();
+    }
+
+    /**
+     * Adds the handlers to the widget of a connector.
+     *
+     * @param connector     the connector, may be {@code null} if the component has been removed
+     * @param registrations the list to which the registrations of the added handlers are added
+     */
+    protected abstract void addHandlers(C connector, List<R> registrations);
+
+    /**
+     * Removes a handler that has been added by {@link #addHandlers(Object, List)}.
+     *
+     * @param registration the registration
+     */
+    protected abstract void removeHandler(R registration);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import com.google.gwt.event.dom.client.DomEvent;
+
+/**
+ * Represents a native input event that is fired whenever the value of a text field changes,
+ * including changes by auto-completion and auto-fill.
+ */
+public class InputEvent extends DomEvent<InputHandler> {
+
+    private static final Type<InputHandler> TYPE = new Type<InputHandler>("input", new InputEvent());
+
+    public static Type<InputHandler> getType() {
+        return TYPE;
+    }
+
+    protected InputEvent() {
+    }
+
+    @Override
+    public final Type<InputHandler> getAssociatedType() {
+        return TYPE;
+    }
+
+    @Override
+    protected void dispatch(InputHandler handler) {
+        handler.onInput(this);
+    }
+}
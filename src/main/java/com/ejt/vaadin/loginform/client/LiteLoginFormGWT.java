@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import com.google.gwt.user.client.ui.*;
+
+/**
+ * Login form with plain HTML inputs and a native submit button. Pressing enter in one of the fields or clicking
+ * the button submits the form natively, which also triggers the password manager.
+ */
+public class LiteLoginFormGWT extends FormPanel {
+
+    public static final String CLASSNAME = "v-liteloginform";
+
+    private final Label userNameLabel = new Label();
+    private final TextBox userNameField = new TextBox();
+    private final Label passwordLabel = new Label();
+    private final PasswordTextBox passwordField = new PasswordTextBox();
+    private final SubmitButton loginButton = new SubmitButton();
+
+    public LiteLoginFormGWT() {
+        setStyleName(CLASSNAME);
+        setMethod(METHOD_POST);
+
+        configureField(userNameField, LoginFormConnector.USER_NAME_PARAMETER);
+        configureField(passwordField, LoginFormConnector.PASSWORD_PARAMETER);
+        loginButton.setStyleName(CLASSNAME + "-button");
+
+        FlowPanel panel = new FlowPanel();
+        panel.add(userNameLabel);
+        panel.add(userNameField);
+        panel.add(passwordLabel);
+        panel.add(passwordField);
+        panel.add(loginButton);
+        setWidget(panel);
+    }
+
+    public void setAction(String serviceUrl, String submitToken) {
+        setAction(LoginAction.create(serviceUrl, submitToken, LoginFormConnector.LOGIN_ON_SUBMIT_PARAMETER + "=true"));
+    }
+
+    public void setCaptions(String userNameCaption, String passwordCaption, String loginButtonCaption) {
+        userNameLabel.setText(userNameCaption);
+        passwordLabel.setText(passwordCaption);
+        loginButton.setText(loginButtonCaption);
+    }
+
+    public void clearPassword() {
+        passwordField.setValue("");
+    }
+
+    public TextBoxBase getUserNameField() {
+        return userNameField;
+    }
+
+    public TextBoxBase getPasswordField() {
+        return passwordField;
+    }
+
+    private static void configureField(TextBoxBase field, String name) {
+        field.setStyleName(CLASSNAME + "-" + name);
+        field.setName(name);
+        field.getElement().setAttribute("autocomplete", "on");
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+
+/**
+ * Builds the action URL of the login form. The login URL is served by the Vaadin servlet of the UI, so the action
+ * is resolved against the service URL of the application and not against the context path. Otherwise, the POST
+ * request would miss a servlet that is not mapped to the root of the context, such as a servlet for {@code /login/*}.
+ */
+public final class LoginAction {
+
+    private LoginAction() {
+    }
+
+    /**
+     * Returns the action URL.
+     *
+     * @param serviceUrl  the service URL of the application connection, usually relative to the page
+     * @param submitToken the submit token of the form or {@code null}
+     * @param queryString the query string without the question mark or {@code null}
+     * @return the action URL
+     */
+    public static String create(String serviceUrl, String submitToken, String queryString) {
+        StringBuilder action = new StringBuilder(serviceUrl == null || serviceUrl.isEmpty() ? "./" : serviceUrl);
+        if (action.charAt(action.length() - 1) != '/') {
+            action.append('/');
+        }
+        // the login URL starts with a slash
+        action.append(LoginFormConnector.LOGIN_URL, 1, LoginFormConnector.LOGIN_URL.length());
+        if (submitToken != null) {
+            action.append('/').append(submitToken);
+        }
+        if (queryString != null) {
+            action.append('?').append(queryString);
+        }
+        return action.toString();
+    }
+}
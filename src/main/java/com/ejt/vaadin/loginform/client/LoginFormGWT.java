@@ -17,16 +17,69 @@
 package com.ejt.vaadin.loginform.client;
 
 import com.ejt.vaadin.loginform.shared.LoginFormConnector;
+import com.ejt.vaadin.loginform.shared.LoginOutcome;
+import com.google.gwt.dom.client.DivElement;
+import com.google.gwt.dom.client.Document;
 import com.google.gwt.user.client.ui.FormPanel;
 
 public class LoginFormGWT extends FormPanel {
 
+    private String serviceUrl;
+    private String submitToken;
+    private String queryString;
+    private LoginOutcome outcome;
+    private DivElement messageElement;
+
     public LoginFormGWT() {
-        getElement().setId("loginForm");
         setMethod(METHOD_POST);
     }
 
-    public void setContextPath(String contextPath) {
-        setAction(contextPath + LoginFormConnector.LOGIN_URL);
+    /**
+     * Sets the service URL of the application, against which the action of the form is resolved.
+     *
+     * @param serviceUrl the service URL of the application connection
+     */
+    public void setServiceUrl(String serviceUrl) {
+        this.serviceUrl = serviceUrl;
+        updateAction();
+    }
+
+    public void setSubmitToken(String submitToken) {
+        this.submitToken = submitToken;
+        updateAction();
+    }
+
+    public void setQueryString(String queryString) {
+        this.queryString = queryString;
+        updateAction();
+    }
+
+    /**
+     * Shows the outcome of a login with a style name and an optional message below the content.
+     *
+     * @param outcome the outcome or {@code null} to remove the current outcome
+     * @param message the message or {@code null}
+     */
+    public void setOutcome(LoginOutcome outcome, String message) {
+        if (this.outcome != null) {
+            removeStyleName(this.outcome.getStyleName());
+        }
+        this.outcome = outcome;
+        if (outcome != null) {
+            addStyleName(outcome.getStyleName());
+        }
+        if (message != null && messageElement == null) {
+            messageElement = Document.get().createDivElement();
+            messageElement.setClassName(LoginFormConnector.MESSAGE_STYLE_NAME);
+            getElement().appendChild(messageElement);
+        }
+        if (messageElement != null) {
+            messageElement.setInnerText(message == null ? "" : message);
+            messageElement.getStyle().setProperty("display", message == null ? "none" : "");
+        }
+    }
+
+    private void updateAction() {
+        setAction(LoginAction.create(serviceUrl, submitToken, queryString));
     }
 }
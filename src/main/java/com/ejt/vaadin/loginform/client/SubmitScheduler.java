@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+/**
+ * Schedules the submission of the login form after the enter key has been pressed.
+ * The browser may still change the field values after the key down event, for example when the enter key
+ * selects an entry of an auto-completion popup. The submission is therefore executed as soon as the browser has
+ * processed the key event, and only if no input event has changed the field values in the meantime.
+ * An optional delay extends the time that the values have to remain stable.
+ * <p/>
+ * The fields and the browser event loop are accessed through a {@link Host}, so the scheduler does not depend
+ * on GWT and can be tested on a plain JVM.
+ */
+public class SubmitScheduler {
+
+    /**
+     * Access to the field values, the browser event loop and the submission of the form.
+     */
+    public interface Host {
+
+        String getUserName();
+
+        String getPassword();
+
+        /**
+         * Runs a command after a delay.
+         *
+         * @param delayMillis the delay in milliseconds or 0 to run the command after the current browser event loop
+         * @param command     the command
+         */
+        void schedule(int delayMillis, Runnable command);
+
+        /**
+         * Submits the form.
+         */
+        void submit();
+    }
+
+    private final Host host;
+
+    private int submitDelay;
+
+    private boolean pending;
+    private int generation;
+    private String userNameSnapshot;
+    private String passwordSnapshot;
+
+    public SubmitScheduler(Host host) {
+        this.host = host;
+    }
+
+    /**
+     * Sets the additional time in milliseconds that the field values have to remain stable.
+     * With a value of 0, the form is submitted after the current browser event loop.
+     */
+    public void setSubmitDelay(int submitDelay) {
+        this.submitDelay = submitDelay;
+    }
+
+    /**
+     * Requests a submission after the enter key has been pressed.
+     */
+    public void requestSubmit() {
+        pending = true;
+        final int currentGeneration = ++generation;
+        userNameSnapshot = host.getUserName();
+        passwordSnapshot = host.getPassword();
+
+        host.schedule(submitDelay, new Runnable() {
+            @Override
+            public void run() {
+                submitIfStable(currentGeneration);
+            }
+        });
+    }
+
+    /**
+     * Notifies the scheduler that a field value has been changed by an input event. A pending submission
+     * is cancelled, since the enter key was used to select an auto-completion entry.
+     */
+    public void valuesChanged() {
+        cancel();
+    }
+
+    /**
+     * Submits immediately, for example after a click on the login button.
+     */
+    public void submitNow() {
+        cancel();
+        host.submit();
+    }
+
+    public void cancel() {
+        if (pending) {
+            pending = false;
+            generation++;
+        }
+    }
+
+    /**
+     * Returns whether a submission has been requested and not yet executed or cancelled.
+     *
+     * @return {@code true} if a submission is pending
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    private void submitIfStable(int requestGeneration) {
+        if (!pending || requestGeneration != generation) {
+            return;
+        }
+        pending = false;
+        if (equal(userNameSnapshot, host.getUserName()) && equal(passwordSnapshot, host.getPassword())) {
+            host.submit();
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
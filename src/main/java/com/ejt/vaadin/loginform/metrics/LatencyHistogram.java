@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram with logarithmic buckets. Each power of two is divided into four sub-buckets,
+ * so the relative error of a reported percentile is at most 25%. Recording a value does not allocate and
+ * does not lock, concurrent updates are distributed over several stripes.
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final int mask;
+    private final AtomicLongArray counts;
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram() {
+        mask = StripedCounter.stripeCount() - 1;
+        counts = new AtomicLongArray((mask + 1) * BUCKET_COUNT);
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(StripedCounter.stripeIndex(mask) * BUCKET_COUNT + bucketIndex(nanos));
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time that has elapsed since a start time obtained with {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot getSnapshot() {
+        long[] merged = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long bucketCount = counts.get(i);
+            merged[i % BUCKET_COUNT] += bucketCount;
+            count += bucketCount;
+        }
+        return new Snapshot(merged, count, totalNanos.get(), maxNanos.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int)nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int)((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+    }
+
+    /**
+     * Immutable state of a histogram at a point in time.
+     */
+    public static class Snapshot implements Serializable {
+
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean(TimeUnit unit) {
+            return count == 0 ? 0 : toUnit((double)totalNanos / count, unit);
+        }
+
+        public double getMax(TimeUnit unit) {
+            return toUnit(maxNanos, unit);
+        }
+
+        /**
+         * Returns the upper bound of the bucket that contains the given percentile.
+         *
+         * @param percentile the percentile between 0 and 100
+         * @param unit       the time unit of the result
+         * @return the latency
+         */
+        public double getPercentile(double percentile, TimeUnit unit) {
+            if (count == 0) {
+                return 0;
+            }
+            long threshold = (long)Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= threshold && cumulative > 0) {
+                    return toUnit(Math.min(bucketUpperBound(i), maxNanos), unit);
+                }
+            }
+            return toUnit(maxNanos, unit);
+        }
+
+        private static double toUnit(double nanos, TimeUnit unit) {
+            return nanos / unit.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.metrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Metrics of all login forms in the JVM. Counters and histograms can be updated concurrently from all
+ * container threads without locking. While a service with login forms is running, the metrics are registered with
+ * the platform MBean server under the name {@value #OBJECT_NAME}. They can be passed to a
+ * {@link LoginMetricsReporter} periodically.
+ */
+public class LoginMetrics implements LoginMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.ejt.vaadin.loginform:type=LoginMetrics";
+
+    private static final LoginMetrics INSTANCE = new LoginMetrics();
+
+    private final StripedCounter loginAttempts = new StripedCounter();
+    private final StripedCounter loginSuccesses = new StripedCounter();
+    private final StripedCounter loginFailures = new StripedCounter();
+    private final StripedCounter unverifiedLogins = new StripedCounter();
+    private final StripedCounter loginsThrottled = new StripedCounter();
+    private final StripedCounter loginsRejected = new StripedCounter();
+    private final StripedCounter requestHandlerHits = new StripedCounter();
+    private final StripedCounter activeForms = new StripedCounter();
+    private final StripedCounter preparedLogins = new StripedCounter();
+    private final StripedCounter preparedLoginHits = new StripedCounter();
+    private final StripedCounter preparedLoginMisses = new StripedCounter();
+    private final StripedCounter evictedPreLoginSessions = new StripedCounter();
+    private final StripedCounter reclaimedPreLoginSessionBytes = new StripedCounter();
+    private final LatencyHistogram listenerTime = new LatencyHistogram();
+    private final LatencyHistogram asyncHandlerTime = new LatencyHistogram();
+    private final LatencyHistogram preparedLoginTime = new LatencyHistogram();
+
+    private ScheduledExecutorService reportingExecutor;
+    private int registrations;
+    private boolean registered;
+
+    LoginMetrics() {
+    }
+
+    /**
+     * Returns the metrics that are recorded by all login forms.
+     *
+     * @return the metrics
+     */
+    public static LoginMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. The registrations are counted, the MBean is registered
+     * with the first one. This is called by {@code LoginFormSupport} when it is installed for a service.
+     */
+    public synchronized void register() {
+        if (registrations++ > 0) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            // another application in the container may have registered its own copy of the metrics
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                registered = true;
+            }
+        } catch (Exception e) {
+            Logger.getLogger(LoginMetrics.class.getName()).log(Level.FINE, "Could not register login metrics", e);
+        }
+    }
+
+    /**
+     * Releases a registration made with {@link #register()}. With the last one, the MBean is unregistered and
+     * reporting is stopped, so that no reference to the classes of an undeployed application remains. This is
+     * called by {@code LoginFormSupport} when its service is destroyed.
+     */
+    public synchronized void unregister() {
+        if (registrations == 0 || --registrations > 0) {
+            return;
+        }
+        stopReporting();
+        if (registered) {
+            registered = false;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                Logger.getLogger(LoginMetrics.class.getName()).log(Level.FINE, "Could not unregister login metrics", e);
+            }
+        }
+    }
+
+    public void loginAttempted() {
+        loginAttempts.increment();
+    }
+
+    public void loginSucceeded() {
+        loginSuccesses.increment();
+    }
+
+    public void loginFailed() {
+        loginFailures.increment();
+    }
+
+    /**
+     * Records a login whose listeners have completed without an authenticator and without confirming the login.
+     */
+    public void loginUnverified() {
+        unverifiedLogins.increment();
+    }
+
+    public void loginThrottled() {
+        loginsThrottled.increment();
+    }
+
+    public void loginRejected() {
+        loginsRejected.increment();
+    }
+
+    public void requestHandlerHit() {
+        requestHandlerHits.increment();
+    }
+
+    public void formAttached() {
+        activeForms.increment();
+    }
+
+    public void formDetached() {
+        activeForms.decrement();
+    }
+
+    public void loginPrepared() {
+        preparedLogins.increment();
+    }
+
+    /**
+     * Records that a login has used the result of a prepared login.
+     *
+     * @param preparationNanos the time in nanoseconds that the preparation has taken and that the login has saved
+     */
+    public void preparedLoginUsed(long preparationNanos) {
+        preparedLoginHits.increment();
+        preparedLoginTime.record(preparationNanos);
+    }
+
+    public void preparedLoginMissed() {
+        preparedLoginMisses.increment();
+    }
+
+    /**
+     * Records that a session in which nobody has logged in has been evicted after its pre-login timeout.
+     *
+     * @param estimatedBytes the estimated size of the session or 0 if it is not known
+     */
+    public void preLoginSessionEvicted(long estimatedBytes) {
+        evictedPreLoginSessions.increment();
+        reclaimedPreLoginSessionBytes.add(estimatedBytes);
+    }
+
+    /**
+     * Returns the histogram of the time spent in login listeners and in overridden login methods
+     * with the session lock held.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getListenerTime() {
+        return listenerTime;
+    }
+
+    /**
+     * Returns the histogram of the time spent in async login handlers.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getAsyncHandlerTime() {
+        return asyncHandlerTime;
+    }
+
+    /**
+     * Returns the histogram of the time spent in prepare login handlers whose results have been used by a login.
+     * This is the latency that has been saved by preparing the logins.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getPreparedLoginTime() {
+        return preparedLoginTime;
+    }
+
+    @Override
+    public long getLoginAttempts() {
+        return loginAttempts.get();
+    }
+
+    @Override
+    public long getLoginSuccesses() {
+        return loginSuccesses.get();
+    }
+
+    @Override
+    public long getLoginFailures() {
+        return loginFailures.get();
+    }
+
+    @Override
+    public long getUnverifiedLogins() {
+        return unverifiedLogins.get();
+    }
+
+    @Override
+    public long getLoginsThrottled() {
+        return loginsThrottled.get();
+    }
+
+    @Override
+    public long getLoginsRejected() {
+        return loginsRejected.get();
+    }
+
+    @Override
+    public long getRequestHandlerHits() {
+        return requestHandlerHits.get();
+    }
+
+    @Override
+    public long getActiveForms() {
+        return activeForms.get();
+    }
+
+    @Override
+    public long getPreparedLogins() {
+        return preparedLogins.get();
+    }
+
+    @Override
+    public long getPreparedLoginHits() {
+        return preparedLoginHits.get();
+    }
+
+    @Override
+    public long getPreparedLoginMisses() {
+        return preparedLoginMisses.get();
+    }
+
+    @Override
+    public long getEvictedPreLoginSessions() {
+        return evictedPreLoginSessions.get();
+    }
+
+    @Override
+    public long getReclaimedPreLoginSessionBytes() {
+        return reclaimedPreLoginSessionBytes.get();
+    }
+
+    @Override
+    public double getListenerTimeMean() {
+        return listenerTime.getSnapshot().getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getListenerTime50thPercentile() {
+        return listenerTime.getSnapshot().getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getListenerTime99thPercentile() {
+        return listenerTime.getSnapshot().getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getListenerTimeMax() {
+        return listenerTime.getSnapshot().getMax(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getAsyncHandlerTimeMean() {
+        return asyncHandlerTime.getSnapshot().getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getAsyncHandlerTime99thPercentile() {
+        return asyncHandlerTime.getSnapshot().getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getPreparedLoginTimeMean() {
+        return preparedLoginTime.getSnapshot().getMean(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resets all counters and histograms except for the number of active forms.
+     */
+    @Override
+    public void reset() {
+        loginAttempts.reset();
+        loginSuccesses.reset();
+        loginFailures.reset();
+        unverifiedLogins.reset();
+        loginsThrottled.reset();
+        loginsRejected.reset();
+        requestHandlerHits.reset();
+        listenerTime.reset();
+        asyncHandlerTime.reset();
+        preparedLogins.reset();
+        preparedLoginHits.reset();
+        preparedLoginMisses.reset();
+        preparedLoginTime.reset();
+        evictedPreLoginSessions.reset();
+        reclaimedPreLoginSessionBytes.reset();
+    }
+
+    /**
+     * Starts to pass the metrics to a reporter periodically on a daemon thread.
+     *
+     * @param reporter the reporter
+     * @param period   the period between two reports
+     * @param unit     the time unit of the period
+     * @return a future that can be cancelled to stop reporting
+     * @see #stopReporting()
+     */
+    public synchronized ScheduledFuture<?> startReporting(final LoginMetricsReporter reporter, long period, TimeUnit unit) {
+        if (reportingExecutor == null) {
+            reportingExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "login-metrics-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reportingExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reporter.report(LoginMetrics.this);
+                } catch (RuntimeException e) {
+                    Logger.getLogger(LoginMetrics.class.getName()).log(Level.WARNING, "Login metrics reporter failed", e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops all reporters that have been started with {@link #startReporting(LoginMetricsReporter, long, TimeUnit)}
+     * and terminates the reporting thread. Reporting can be started again afterwards.
+     */
+    public synchronized void stopReporting() {
+        if (reportingExecutor != null) {
+            reportingExecutor.shutdownNow();
+            reportingExecutor = null;
+        }
+    }
+}
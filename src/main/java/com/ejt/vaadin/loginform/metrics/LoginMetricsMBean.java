@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.metrics;
+
+/**
+ * JMX interface of {@link LoginMetrics}. All times are in milliseconds.
+ */
+public interface LoginMetricsMBean {
+
+    long getLoginAttempts();
+
+    long getLoginSuccesses();
+
+    long getLoginFailures();
+
+    long getUnverifiedLogins();
+
+    long getLoginsThrottled();
+
+    long getLoginsRejected();
+
+    long getRequestHandlerHits();
+
+    long getActiveForms();
+
+    long getPreparedLogins();
+
+    long getPreparedLoginHits();
+
+    long getPreparedLoginMisses();
+
+    long getEvictedPreLoginSessions();
+
+    long getReclaimedPreLoginSessionBytes();
+
+    double getListenerTimeMean();
+
+    double getListenerTime50thPercentile();
+
+    double getListenerTime99thPercentile();
+
+    double getListenerTimeMax();
+
+    double getAsyncHandlerTimeMean();
+
+    double getAsyncHandlerTime99thPercentile();
+
+    double getPreparedLoginTimeMean();
+
+    void reset();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.metrics;
+
+/**
+ * Receives the login metrics periodically. Register with
+ * {@link LoginMetrics#startReporting(LoginMetricsReporter, long, java.util.concurrent.TimeUnit)}.
+ */
+public interface LoginMetricsReporter {
+
+    /**
+     * Called periodically on the reporting thread.
+     *
+     * @param metrics the metrics
+     */
+    void report(LoginMetrics metrics);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that distributes concurrent updates over several cells to avoid contention between threads.
+ * The cells are spaced apart so that they do not share a cache line.
+ */
+public class StripedCounter implements Serializable {
+
+    private static final int PADDING = 8;
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    public StripedCounter() {
+        mask = stripeCount() - 1;
+        cells = new AtomicLongArray((mask + 1) * PADDING);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    public void add(long delta) {
+        cells.addAndGet(stripeIndex(mask) * PADDING, delta);
+    }
+
+    /**
+     * Returns the sum of all cells. Concurrent updates may or may not be included.
+     *
+     * @return the current value
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+    }
+
+    static int stripeIndex(int mask) {
+        long id = Thread.currentThread().getId();
+        return (int)((id ^ (id >>> 16)) * 0x9E3779B9L) & mask;
+    }
+}
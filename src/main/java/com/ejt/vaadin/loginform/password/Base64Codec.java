@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes the salt and the hash of a stored password with the standard Base64 alphabet and padding.
+ * The add-on targets Java 6, which has no public Base64 codec, and {@code javax.xml.bind} is not available on
+ * Java 11 and later.
+ */
+final class Base64Codec {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Codec() {
+    }
+
+    static String encode(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int group = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                group |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                group |= bytes[i + 2] & 0xff;
+            }
+            encoded.append(ALPHABET[group >>> 18]).append(ALPHABET[(group >>> 12) & 0x3f]);
+            encoded.append(remaining > 1 ? ALPHABET[(group >>> 6) & 0x3f] : '=');
+            encoded.append(remaining > 2 ? ALPHABET[group & 0x3f] : '=');
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Decodes a padded Base64 string.
+     *
+     * @param encoded the encoded string
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the string is not valid Base64
+     */
+    static byte[] decode(String encoded) {
+        int length = encoded.length();
+        if (length % 4 != 0) {
+            throw new IllegalArgumentException("Invalid Base64 length");
+        }
+        int padding = length == 0 ? 0 : encoded.charAt(length - 1) != '=' ? 0 : encoded.charAt(length - 2) != '=' ? 1 : 2;
+        byte[] bytes = new byte[length / 4 * 3 - padding];
+        int position = 0;
+        for (int i = 0; i < length; i += 4) {
+            int group = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = encoded.charAt(i + j);
+                int value;
+                if (c == '=' && i + j >= length - padding) {
+                    value = 0;
+                } else {
+                    value = c < VALUES.length ? VALUES[c] : -1;
+                    if (value < 0) {
+                        throw new IllegalArgumentException("Invalid Base64 character " + c);
+                    }
+                }
+                group = group << 6 | value;
+            }
+            for (int shift = 16; shift >= 0 && position < bytes.length; shift -= 8) {
+                bytes[position++] = (byte)(group >>> shift);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+import com.ejt.vaadin.loginform.AuthenticationResult;
+import com.ejt.vaadin.loginform.Authenticator;
+
+/**
+ * Authenticator that verifies passwords against the hashes in a {@link PasswordStore} with a
+ * {@link PasswordVerifier}. Outdated hashes are replaced in the store after a successful login.
+ * <p/>
+ * For unknown user names, a dummy hash is verified, so the response time does not reveal which users exist.
+ * The principal of a successful login is the user name.
+ */
+public class HashedPasswordAuthenticator implements Authenticator {
+
+    private final PasswordVerifier verifier;
+    private final PasswordStore store;
+
+    public HashedPasswordAuthenticator(PasswordVerifier verifier, PasswordStore store) {
+        this.verifier = verifier;
+        this.store = store;
+    }
+
+    @Override
+    public AuthenticationResult authenticate(String userName, String password) {
+        PasswordVerifier.Verification verification = verifier.verify(password, store.getPasswordHash(userName));
+        if (!verification.matches()) {
+            return AuthenticationResult.failure();
+        }
+        if (verification.getUpgradedHash() != null) {
+            store.updatePasswordHash(userName, verification.getUpgradedHash());
+        }
+        return AuthenticationResult.success(userName);
+    }
+}
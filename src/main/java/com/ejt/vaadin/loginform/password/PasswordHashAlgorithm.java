@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+/**
+ * Service provider interface for password hash algorithms that are used by {@link PasswordVerifier}.
+ * Implementations with a public no-argument constructor that are listed in
+ * {@code META-INF/services/com.ejt.vaadin.loginform.password.PasswordHashAlgorithm} are found automatically, so that
+ * hashes created with them can still be verified. Implementations must be thread safe.
+ */
+public interface PasswordHashAlgorithm {
+
+    /**
+     * Returns the identifier of the algorithm that is stored with each hash. It must not contain a {@code $}.
+     *
+     * @return the identifier
+     */
+    String getId();
+
+    /**
+     * Returns the smallest cost factor that is accepted by the algorithm. Calibration starts with this value.
+     *
+     * @return the minimum cost
+     */
+    int getMinimumCost();
+
+    /**
+     * Hashes a password. The time that is needed should grow linearly with the cost factor.
+     *
+     * @param password the password
+     * @param salt     the salt
+     * @param cost     the cost factor, for example the number of iterations
+     * @return the hash
+     */
+    byte[] hash(char[] password, byte[] salt, int cost);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+/**
+ * Access to the stored password hashes for {@link HashedPasswordAuthenticator}. Implementations must be thread safe.
+ */
+public interface PasswordStore {
+
+    /**
+     * Returns the stored hash of a user.
+     *
+     * @param userName the user name
+     * @return the hash as created by {@link PasswordVerifier#hash(String)} or {@code null} if the user does not exist
+     */
+    String getPasswordHash(String userName);
+
+    /**
+     * Replaces the stored hash of a user after a successful login, because it has been created with an older
+     * algorithm or a lower cost than the current calibration.
+     *
+     * @param userName the user name
+     * @param hash     the new hash
+     */
+    void updatePasswordHash(String userName, String hash);
+}
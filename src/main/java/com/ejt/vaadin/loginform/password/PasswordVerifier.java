@@ -0,0 +1,323 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashes and verifies passwords with a cost factor that is calibrated to a target verification time on the current
+ * hardware. The calibration runs when the verifier is created and can be repeated with {@link #calibrate()}.
+ * <p/>
+ * Verifications run on a dedicated pool with one thread per core, so that concurrent logins cannot oversubscribe
+ * the CPU. Hashes are stored as {@code $algorithm$cost$salt$hash} with Base64 encoded salt and hash. A hash that
+ * has been created with another algorithm or with at most half the cost of the current calibration is reported by
+ * {@link Verification#getUpgradedHash()}, so that it can be replaced after the login. Calibrations vary slightly
+ * between restarts and machines, so smaller differences in cost do not cause an upgrade on every login.
+ * <p/>
+ * Since stored hashes keep their cost until they are upgraded, a verification for a user that does not exist runs the
+ * algorithm and the cost of the most recently verified stored hash instead of the current calibration. Its response
+ * time therefore does not reveal whether the user exists.
+ * <p/>
+ * Verifiers are thread safe and should be shared by all login forms. Call {@link #shutdown()} when the application
+ * is stopped.
+ */
+public class PasswordVerifier {
+
+    public static final long DEFAULT_TARGET_MILLIS = 100;
+
+    /**
+     * A hash is upgraded if the current cost is at least this factor higher than the cost of the hash.
+     */
+    public static final int UPGRADE_COST_FACTOR = 2;
+
+    private static final int SALT_LENGTH = 16;
+    private static final int CALIBRATION_ROUNDS = 3;
+    private static final char[] CALIBRATION_PASSWORD = "calibration".toCharArray();
+    private static final Logger LOGGER = Logger.getLogger(PasswordVerifier.class.getName());
+
+    private final PasswordHashAlgorithm algorithm;
+    private final Map<String, PasswordHashAlgorithm> algorithms = new HashMap<String, PasswordHashAlgorithm>();
+    private final long targetNanos;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] dummySalt = new byte[SALT_LENGTH];
+    private volatile int cost;
+    private volatile HashParameters dummyParameters;
+
+    /**
+     * Creates a verifier with PBKDF2 and the default target time of {@value #DEFAULT_TARGET_MILLIS} ms.
+     */
+    public PasswordVerifier() {
+        this(new Pbkdf2Algorithm(), DEFAULT_TARGET_MILLIS);
+    }
+
+    /**
+     * Creates a verifier with one verification thread per core.
+     *
+     * @param algorithm    the algorithm for new hashes
+     * @param targetMillis the target time of a single verification in milliseconds
+     */
+    public PasswordVerifier(PasswordHashAlgorithm algorithm, long targetMillis) {
+        this(algorithm, targetMillis, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a verifier.
+     *
+     * @param algorithm    the algorithm for new hashes
+     * @param targetMillis the target time of a single verification in milliseconds
+     * @param threads      the number of verification threads
+     */
+    public PasswordVerifier(PasswordHashAlgorithm algorithm, long targetMillis, int threads) {
+        if (targetMillis < 1) {
+            throw new IllegalArgumentException("targetMillis must be positive");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.algorithm = algorithm;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        random.nextBytes(dummySalt);
+        for (PasswordHashAlgorithm provided : ServiceLoader.load(PasswordHashAlgorithm.class)) {
+            algorithms.put(provided.getId(), provided);
+        }
+        Pbkdf2Algorithm pbkdf2 = new Pbkdf2Algorithm();
+        algorithms.put(pbkdf2.getId(), pbkdf2);
+        algorithms.put(algorithm.getId(), algorithm);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "password-verifier-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        calibrate();
+    }
+
+    /**
+     * Measures the algorithm on the current hardware and sets the cost factor so that a single verification takes
+     * about the target time. Hashes with at most 1/{@value #UPGRADE_COST_FACTOR} of the new cost are upgraded on
+     * the next successful login.
+     *
+     * @return the new cost factor
+     */
+    public int calibrate() {
+        int calibratedCost = algorithm.getMinimumCost();
+        long time = measure(calibratedCost);
+        // double the cost until the measurement is long enough to be reliable, then scale linearly
+        while (time < targetNanos / 4 && calibratedCost < Integer.MAX_VALUE / 2) {
+            calibratedCost *= 2;
+            time = measure(calibratedCost);
+        }
+        long scaledCost = time < targetNanos ? calibratedCost * targetNanos / Math.max(1, time) : calibratedCost;
+        calibratedCost = (int)Math.max(algorithm.getMinimumCost(), Math.min(Integer.MAX_VALUE, scaledCost));
+        if (calibratedCost != cost) {
+            cost = calibratedCost;
+            if (dummyParameters == null) {
+                // until the first stored hash has been verified, new hashes are the best estimate
+                dummyParameters = new HashParameters(algorithm, calibratedCost);
+            }
+            LOGGER.log(Level.INFO, "Calibrated {0} to cost {1} for a target time of {2} ms",
+                    new Object[] {algorithm.getId(), calibratedCost, TimeUnit.NANOSECONDS.toMillis(targetNanos)});
+        }
+        return calibratedCost;
+    }
+
+    private long measure(int cost) {
+        byte[] salt = new byte[SALT_LENGTH];
+        long minTime = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            long startTime = System.nanoTime();
+            algorithm.hash(CALIBRATION_PASSWORD, salt, cost);
+            minTime = Math.min(minTime, System.nanoTime() - startTime);
+        }
+        return minTime;
+    }
+
+    /**
+     * Returns the current cost factor.
+     *
+     * @return the cost factor
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Creates a hash with a random salt and the current cost factor. Runs on the calling thread.
+     *
+     * @param password the password
+     * @return the encoded hash
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        int currentCost = cost;
+        byte[] hash = algorithm.hash(password.toCharArray(), salt, currentCost);
+        return "$" + algorithm.getId() + "$" + currentCost + "$" +
+                Base64Codec.encode(salt) + "$" + Base64Codec.encode(hash);
+    }
+
+    /**
+     * Verifies a password on the verification pool and waits for the result.
+     *
+     * @param password   the password
+     * @param storedHash the stored hash or {@code null} if the user does not exist. In that case, the password is
+     *                   hashed with the algorithm and the cost of the most recently verified stored hash, so that
+     *                   the response time does not reveal whether the user exists.
+     * @return the result
+     */
+    public Verification verify(String password, String storedHash) {
+        Future<Verification> future = verifyAsync(password, storedHash);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts the verification of a password on the verification pool.
+     *
+     * @param password   the password
+     * @param storedHash the stored hash or {@code null} if the user does not exist
+     * @return a future for the result
+     * @see #verify(String, String)
+     */
+    public Future<Verification> verifyAsync(final String password, final String storedHash) {
+        return executor.submit(new Callable<Verification>() {
+            @Override
+            public Verification call() {
+                return verifyNow(password, storedHash);
+            }
+        });
+    }
+
+    private Verification verifyNow(String password, String storedHash) {
+        if (storedHash == null) {
+            HashParameters parameters = dummyParameters;
+            char[] passwordChars = password.toCharArray();
+            parameters.algorithm.hash(passwordChars, dummySalt, parameters.cost);
+            Arrays.fill(passwordChars, '\0');
+            return new Verification(false, null);
+        }
+        String[] parts = storedHash.split("\\$");
+        if (parts.length != 5 || !parts[0].isEmpty()) {
+            throw new IllegalArgumentException("Invalid password hash");
+        }
+        PasswordHashAlgorithm hashAlgorithm = algorithms.get(parts[1]);
+        if (hashAlgorithm == null) {
+            throw new IllegalArgumentException("Unknown password hash algorithm " + parts[1]);
+        }
+        int hashCost = Integer.parseInt(parts[2]);
+        byte[] salt = Base64Codec.decode(parts[3]);
+        byte[] expected = Base64Codec.decode(parts[4]);
+        HashParameters parameters = dummyParameters;
+        if (parameters.algorithm != hashAlgorithm || parameters.cost != hashCost) {
+            dummyParameters = new HashParameters(hashAlgorithm, hashCost);
+        }
+        char[] passwordChars = password.toCharArray();
+        byte[] actual = hashAlgorithm.hash(passwordChars, salt, hashCost);
+        Arrays.fill(passwordChars, '\0');
+
+        boolean matches = MessageDigest.isEqual(expected, actual);
+        String upgradedHash = null;
+        if (matches && (hashAlgorithm != algorithm || (long)hashCost * UPGRADE_COST_FACTOR <= cost)) {
+            upgradedHash = hash(password);
+        }
+        return new Verification(matches, upgradedHash);
+    }
+
+    /**
+     * Stops the verification threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The algorithm and the cost of a stored hash.
+     */
+    private static final class HashParameters {
+        private final PasswordHashAlgorithm algorithm;
+        private final int cost;
+
+        private HashParameters(PasswordHashAlgorithm algorithm, int cost) {
+            this.algorithm = algorithm;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * The result of a password verification.
+     */
+    public static final class Verification {
+        private final boolean matches;
+        private final String upgradedHash;
+
+        private Verification(boolean matches, String upgradedHash) {
+            this.matches = matches;
+            this.upgradedHash = upgradedHash;
+        }
+
+        /**
+         * Returns whether the password matches the stored hash.
+         *
+         * @return {@code true} if the password is correct
+         */
+        public boolean matches() {
+            return matches;
+        }
+
+        /**
+         * Returns a new hash of the password if the stored hash has been created with another algorithm or with at
+         * most 1/{@value PasswordVerifier#UPGRADE_COST_FACTOR} of the cost of the current calibration.
+         *
+         * @return the new hash or {@code null} if the stored hash is up to date or the password does not match
+         */
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * PBKDF2 from the JDK. The cost factor is the number of iterations. By default, {@code PBKDF2WithHmacSHA1} is used,
+ * which is available on all supported Java versions. On Java 8 and later, you can pass
+ * {@code PBKDF2WithHmacSHA256} or {@code PBKDF2WithHmacSHA512} to the constructor.
+ */
+public class Pbkdf2Algorithm implements PasswordHashAlgorithm {
+
+    public static final String DEFAULT_ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    private static final int KEY_LENGTH = 256;
+
+    private final String algorithm;
+    private final String id;
+
+    public Pbkdf2Algorithm() {
+        this(DEFAULT_ALGORITHM);
+    }
+
+    /**
+     * @param algorithm the name of the secret key factory
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public Pbkdf2Algorithm(String algorithm) {
+        try {
+            SecretKeyFactory.getInstance(algorithm);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Algorithm " + algorithm + " is not available", e);
+        }
+        this.algorithm = algorithm;
+        this.id = algorithm.toLowerCase();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public int getMinimumCost() {
+        return 1000;
+    }
+
+    @Override
+    public byte[] hash(char[] password, byte[] salt, int cost) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, cost, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not hash password with " + algorithm, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
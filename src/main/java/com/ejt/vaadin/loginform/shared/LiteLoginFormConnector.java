@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.shared;
+
+import com.ejt.vaadin.loginform.LiteLoginForm;
+import com.ejt.vaadin.loginform.client.LiteLoginFormGWT;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.FormElement;
+import com.google.gwt.dom.client.InputElement;
+import com.google.gwt.user.client.ui.FormPanel;
+import com.google.gwt.user.client.ui.TextBoxBase;
+import com.vaadin.client.communication.StateChangeEvent;
+import com.vaadin.client.ui.AbstractComponentConnector;
+import com.vaadin.shared.ui.Connect;
+
+@Connect(LiteLoginForm.class)
+public class LiteLoginFormConnector extends AbstractComponentConnector {
+
+    private LiteLoginFormRpc rpc;
+
+    @Override
+    protected void init() {
+        super.init();
+
+        rpc = getRpcProxy(LiteLoginFormRpc.class);
+        registerRpc(LoginFormClientRpc.class, new LoginFormClientRpc() {
+            @Override
+            public void loginThrottled(int retryAfterMillis) {
+                getWidget().clearPassword();
+            }
+
+            @Override
+            public void loginOutcome(LoginOutcome outcome, String message) {
+                setOutcome(outcome);
+                if (outcome == LoginOutcome.FAILURE) {
+                    getWidget().clearPassword();
+                }
+            }
+        });
+        getWidget().addSubmitHandler(new FormPanel.SubmitHandler() {
+            @Override
+            public void onSubmit(FormPanel.SubmitEvent event) {
+                LiteLoginFormState state = getState();
+                if (!isValid(getWidget().getUserNameField(), state.userNameValidation) ||
+                        !isValid(getWidget().getPasswordField(), state.passwordValidation)) {
+                    event.cancel();
+                }
+            }
+        });
+        getWidget().addSubmitCompleteHandler(new FormPanel.SubmitCompleteHandler() {
+            @Override
+            public void onSubmitComplete(FormPanel.SubmitCompleteEvent event) {
+                // the login has already been processed with the POST request
+                if (!getConnection().getUIConnector().getState().pushConfiguration.mode.isEnabled()) {
+                    rpc.resultRequested();
+                }
+            }
+        });
+    }
+
+    private void setOutcome(LoginOutcome outcome) {
+        for (LoginOutcome value : LoginOutcome.values()) {
+            getWidget().removeStyleName(value.getStyleName());
+        }
+        getWidget().addStyleName(outcome.getStyleName());
+    }
+
+    /**
+     * Checks the validation rules of a field before the form is submitted. If the value is invalid, the form shows
+     * the failure style and the field is focused.
+     */
+    private boolean isValid(TextBoxBase field, LoginFieldValidation validation) {
+        if (validation == null || LoginFormConnector.isValid(field.getText(), validation)) {
+            return true;
+        }
+        setOutcome(LoginOutcome.FAILURE);
+        field.setFocus(true);
+        return false;
+    }
+
+    @Override
+    public LiteLoginFormGWT getWidget() {
+        return (LiteLoginFormGWT)super.getWidget();
+    }
+
+    @Override
+    public LiteLoginFormState getState() {
+        return (LiteLoginFormState)super.getState();
+    }
+
+    @Override
+    public void onStateChanged(StateChangeEvent stateChangeEvent) {
+        super.onStateChanged(stateChangeEvent);
+
+        LiteLoginFormState state = getState();
+        getWidget().setCaptions(state.userNameCaption, state.passwordCaption, state.loginButtonCaption);
+        getWidget().setAction(getConnection().getConfiguration().getServiceUrl(), state.submitToken);
+
+        adoptPrerenderedForm();
+    }
+
+    /**
+     * Takes over the values and the focus of the form that has been rendered into the bootstrap page
+     * and removes it. If the pre-rendered form has been submitted, the form is submitted now.
+     *
+     * @see LoginFormConnector#PRERENDERED_FORM_ID
+     */
+    private void adoptPrerenderedForm() {
+        Element element = Document.get().getElementById(LoginFormConnector.PRERENDERED_FORM_ID);
+        if (element == null) {
+            return;
+        }
+        FormElement form = FormElement.as(element);
+        InputElement userInput = LoginFormConnector.findInput(form, LoginFormConnector.USER_NAME_PARAMETER);
+        InputElement passwordInput = LoginFormConnector.findInput(form, LoginFormConnector.PASSWORD_PARAMETER);
+        Element focusedElement = LoginFormConnector.getFocusedElement();
+        boolean submitted = "true".equals(form.getAttribute(LoginFormConnector.PRERENDERED_SUBMIT_ATTRIBUTE));
+
+        final LiteLoginFormGWT widget = getWidget();
+        if (userInput != null) {
+            widget.getUserNameField().setText(userInput.getValue());
+        }
+        if (passwordInput != null) {
+            widget.getPasswordField().setText(passwordInput.getValue());
+        }
+        form.removeFromParent();
+
+        if (submitted) {
+            // the form can only be submitted after it has been attached
+            Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+                @Override
+                public void execute() {
+                    if (widget.isAttached()) {
+                        widget.submit();
+                    }
+                }
+            });
+        } else if (focusedElement != null && focusedElement == passwordInput) {
+            widget.getPasswordField().setFocus(true);
+        } else if (focusedElement != null && focusedElement == userInput) {
+            widget.getUserNameField().setFocus(true);
+        }
+    }
+}
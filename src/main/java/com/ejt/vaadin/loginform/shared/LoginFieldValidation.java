@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.shared;
+
+import java.io.Serializable;
+
+/**
+ * Validation rules for the user name or the password field of a login form. The rules are checked by the client
+ * before the form is submitted, so that invalid input is rejected without a request, and again by the server.
+ * An empty value is valid unless the field is required.
+ * <p/>
+ * The pattern must match the whole value. It is evaluated with JavaScript regular expressions on the client and
+ * with {@link java.util.regex.Pattern} on the server, so it should only use the syntax that both have in common.
+ * Do not modify a validation after it has been set on a login form.
+ */
+public class LoginFieldValidation implements Serializable {
+
+    public boolean required;
+    public int minLength;
+    public int maxLength = -1;
+    public String pattern;
+    public String message;
+
+    public LoginFieldValidation() {
+    }
+
+    /**
+     * Creates validation rules.
+     *
+     * @param required  whether the field must not be empty
+     * @param minLength the minimum length of a non-empty value
+     * @param maxLength the maximum length or -1 for no limit
+     * @param pattern   a regular expression that a non-empty value must match or {@code null}
+     * @param message   the message that is shown if the value is invalid or {@code null}
+     */
+    public LoginFieldValidation(boolean required, int minLength, int maxLength, String pattern, String message) {
+        this.required = required;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.pattern = pattern;
+        this.message = message;
+    }
+
+    /**
+     * Checks all rules except for the pattern, which has to be evaluated with the regular expressions of the client
+     * or the server.
+     *
+     * @param value the value
+     * @return {@code true} if the value is empty and not required or has a valid length
+     */
+    public boolean isLengthValid(String value) {
+        int length = value == null ? 0 : value.length();
+        if (length == 0) {
+            return !required;
+        }
+        return length >= minLength && (maxLength < 0 || length <= maxLength);
+    }
+
+    /**
+     * Returns whether the pattern has to be checked for a value.
+     *
+     * @param value the value
+     * @return {@code true} if a pattern has been set and the value is not empty
+     */
+    public boolean hasPattern(String value) {
+        return pattern != null && value != null && !value.isEmpty();
+    }
+}
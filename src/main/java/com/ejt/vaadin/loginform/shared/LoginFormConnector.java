@@ -17,16 +17,28 @@
 package com.ejt.vaadin.loginform.shared;
 
 import com.ejt.vaadin.loginform.LoginForm;
+import com.ejt.vaadin.loginform.client.HandlerWiring;
+import com.ejt.vaadin.loginform.client.InputEvent;
+import com.ejt.vaadin.loginform.client.InputHandler;
 import com.ejt.vaadin.loginform.client.LoginFormGWT;
+import com.ejt.vaadin.loginform.client.SubmitScheduler;
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.event.dom.client.*;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.user.client.DOM;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.FormElement;
+import com.google.gwt.dom.client.InputElement;
+import com.google.gwt.dom.client.NodeCollection;
 
 import com.google.gwt.user.client.ui.FocusWidget;
 import com.google.gwt.user.client.ui.FormPanel;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.vaadin.client.ApplicationConnection;
 import com.vaadin.client.ComponentConnector;
 import com.vaadin.client.ConnectorHierarchyChangeEvent;
 import com.vaadin.client.communication.StateChangeEvent;
@@ -40,14 +52,99 @@ import com.vaadin.client.ui.textfield.TextFieldConnector;
 import com.vaadin.shared.Connector;
 import com.vaadin.shared.ui.Connect;
 
+import java.util.List;
+
 @Connect(LoginForm.class)
 public class LoginFormConnector extends AbstractSingleComponentContainerConnector {
 
     public static final String LOGIN_URL = "/loginForm";
+    public static final String USER_NAME_PARAMETER = "username";
+    public static final String PASSWORD_PARAMETER = "password";
+    public static final String LOGIN_ON_SUBMIT_PARAMETER = "v-loginOnSubmit";
+    public static final String FORM_ELEMENT_ID = "loginForm";
+    public static final String THROTTLED_STYLE_NAME = "v-loginform-throttled";
+    public static final String BUSY_STYLE_NAME = "v-loginform-busy";
+    public static final String MESSAGE_STYLE_NAME = "v-loginform-message";
+    public static final String PRERENDERED_FORM_ID = "v-loginform-prerendered";
+    public static final String PRERENDERED_SUBMIT_ATTRIBUTE = "data-submitted";
+    public static final int MAX_BUSY_RETRIES = 6;
+
+    private static final int PREPARE_LOGIN_DELAY = 800;
 
     private VTextField passwordField;
     private VTextField userField;
+    private final ConnectorWiring userFieldWiring = new ConnectorWiring() {
+        @Override
+        protected void addHandlers(Connector connector, List<HandlerRegistration> registrations) {
+            userField = configureTextField(connector, USER_NAME_PARAMETER, registrations);
+            if (userField != null) {
+                addPrepareLoginHandlers(userField, registrations);
+            }
+        }
+    };
+    private final ConnectorWiring passwordFieldWiring = new ConnectorWiring() {
+        @Override
+        protected void addHandlers(Connector connector, List<HandlerRegistration> registrations) {
+            passwordField = configureTextField(connector, PASSWORD_PARAMETER, registrations);
+        }
+    };
+    private final ConnectorWiring loginButtonWiring = new ConnectorWiring() {
+        @Override
+        protected void addHandlers(Connector connector, List<HandlerRegistration> registrations) {
+            addSubmitButtonClickHandler(connector, registrations);
+        }
+    };
     private LoginFormRpc loginFormRpc;
+    private LoginTimings timings;
+    private double timingsStart;
+    private HandlerRegistration responseHandlerRegistration;
+    private double throttledUntil;
+    private int handledBusyCount;
+    private Timer busyRetryTimer;
+    private String preparedUserName;
+    private boolean heartbeatIntervalChanged;
+    private int originalHeartbeatInterval;
+    private final Timer prepareLoginTimer = new Timer() {
+        @Override
+        public void run() {
+            prepareLogin();
+        }
+    };
+    private final SubmitScheduler submitScheduler = new SubmitScheduler(new SubmitScheduler.Host() {
+        @Override
+        public String getUserName() {
+            return userField == null ? null : userField.getValue();
+        }
+
+        @Override
+        public String getPassword() {
+            return passwordField == null ? null : passwordField.getValue();
+        }
+
+        @Override
+        public void schedule(int delayMillis, final Runnable command) {
+            if (delayMillis > 0) {
+                new Timer() {
+                    @Override
+                    public void run() {
+                        command.run();
+                    }
+                }.schedule(delayMillis);
+            } else {
+                Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        command.run();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void submit() {
+            login();
+        }
+    });
 
     @Override
     public void updateCaption(ComponentConnector connector) {
@@ -64,11 +161,51 @@ public class LoginFormConnector extends AbstractSingleComponentContainerConnecto
         super.init();
 
         loginFormRpc = getRpcProxy(LoginFormRpc.class);
+        // several login forms can be shown at the same time, so all element ids are unique per connector
+        getWidget().getElement().setId(getElementId(FORM_ELEMENT_ID));
+        // the login URL is handled by the servlet of the application, which is not necessarily mapped to the root
+        getWidget().setServiceUrl(getConnection().getConfiguration().getServiceUrl());
+        registerRpc(LoginFormClientRpc.class, new LoginFormClientRpc() {
+            @Override
+            public void loginThrottled(int retryAfterMillis) {
+                throttledUntil = Duration.currentTimeMillis() + retryAfterMillis;
+                getWidget().addStyleName(THROTTLED_STYLE_NAME);
+                new Timer() {
+                    @Override
+                    public void run() {
+                        getWidget().removeStyleName(THROTTLED_STYLE_NAME);
+                    }
+                }.schedule(retryAfterMillis);
+            }
+
+            @Override
+            public void loginOutcome(LoginOutcome outcome, String message) {
+                getWidget().setOutcome(outcome, message);
+                if (outcome != LoginOutcome.PENDING && getState().loginOnSubmit && passwordField != null) {
+                    // the password has only been sent with the POST request, so the server field does not know it
+                    passwordField.setText("");
+                }
+                if (outcome == LoginOutcome.FAILURE && passwordField != null) {
+                    passwordField.setFocus(true);
+                }
+            }
+        });
         getWidget().addSubmitCompleteHandler(new FormPanel.SubmitCompleteHandler() {
             @Override
             public void onSubmitComplete(FormPanel.SubmitCompleteEvent event) {
-                valuesChanged();
-                loginFormRpc.submitCompleted();
+                markTiming(Phase.SUBMIT_COMPLETE);
+                if (getState().loginOnSubmit) {
+                    // the login has already been processed with the POST request
+                    if (!isPushEnabled()) {
+                        markTiming(Phase.RPC);
+                        loginFormRpc.resultRequested();
+                    }
+                } else {
+                    valuesChanged();
+                    markTiming(Phase.RPC);
+                    loginFormRpc.submitCompleted();
+                }
+                awaitResponse();
             }
         });
     }
@@ -91,21 +228,206 @@ public class LoginFormConnector extends AbstractSingleComponentContainerConnecto
         super.onStateChanged(stateChangeEvent);
 
         LoginFormState state = getState();
-        userField = configureTextField(state.userNameFieldConnector, "username");
-        passwordField = configureTextField(state.passwordFieldConnector, "password");
-        addSubmitButtonClickHandler(state.loginButtonConnector);
+        userFieldWiring.update(state.userNameFieldConnector);
+        passwordFieldWiring.update(state.passwordFieldConnector);
+        loginButtonWiring.update(state.loginButtonConnector);
+        submitScheduler.setSubmitDelay(state.submitDelay);
+
+        if (stateChangeEvent.hasPropertyChanged("preLoginHeartbeatInterval")) {
+            setHeartbeatInterval(state.preLoginHeartbeatInterval);
+        }
+
+        if (stateChangeEvent.hasPropertyChanged("busyCount")) {
+            busyCountChanged(state.busyCount, state.busyRetryDelay);
+        }
+
+        if (state.loginOnSubmit) {
+            getWidget().setQueryString(LOGIN_ON_SUBMIT_PARAMETER + "=true");
+        } else {
+            getWidget().setQueryString(null);
+        }
+
+        adoptPrerenderedForm();
+    }
+
+    /**
+     * Takes over the values and the focus of the form that has been rendered into the bootstrap page
+     * and removes it. If the pre-rendered form has been submitted, the login is performed now.
+     */
+    private void adoptPrerenderedForm() {
+        if (userField == null || passwordField == null) {
+            return;
+        }
+        Element element = Document.get().getElementById(PRERENDERED_FORM_ID);
+        if (element == null) {
+            return;
+        }
+        FormElement form = FormElement.as(element);
+        InputElement userInput = findInput(form, USER_NAME_PARAMETER);
+        InputElement passwordInput = findInput(form, PASSWORD_PARAMETER);
+        Element focusedElement = getFocusedElement();
+        boolean submitted = "true".equals(form.getAttribute(PRERENDERED_SUBMIT_ATTRIBUTE));
+
+        if (userInput != null) {
+            userField.setText(userInput.getValue());
+        }
+        if (passwordInput != null) {
+            passwordField.setText(passwordInput.getValue());
+        }
+        form.removeFromParent();
+
+        if (submitted) {
+            // the form panel can only be submitted after it has been attached
+            Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+                @Override
+                public void execute() {
+                    if (getWidget().isAttached()) {
+                        submitScheduler.submitNow();
+                    }
+                }
+            });
+        } else if (focusedElement != null && focusedElement == passwordInput) {
+            passwordField.setFocus(true);
+        } else if (focusedElement != null && focusedElement == userInput) {
+            userField.setFocus(true);
+        }
+    }
+
+    static InputElement findInput(FormElement form, String name) {
+        NodeCollection<Element> elements = form.getElements();
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = elements.getItem(i);
+            if (name.equals(element.getAttribute("name"))) {
+                return InputElement.as(element);
+            }
+        }
+        return null;
     }
 
-    private VTextField configureTextField(Connector connector, String id) {
+    static native Element getFocusedElement()/*-{
+        return $doc.activeElement;
+    }-*/;
+
+    @Override
+    public void onUnregister() {
+        super.onUnregister();
+        userFieldWiring.clear();
+        passwordFieldWiring.clear();
+        loginButtonWiring.clear();
+        submitScheduler.cancel();
+        prepareLoginTimer.cancel();
+        setHeartbeatInterval(-1);
+    }
+
+    /**
+     * Changes the heartbeat interval of the application while the session is a pre-login session.
+     *
+     * @param heartbeatInterval the interval in seconds or -1 to restore the interval of the application
+     */
+    private void setHeartbeatInterval(int heartbeatInterval) {
+        if (heartbeatInterval > 0) {
+            if (!heartbeatIntervalChanged) {
+                originalHeartbeatInterval = getConnection().getConfiguration().getHeartbeatInterval();
+                heartbeatIntervalChanged = true;
+            }
+            getConnection().getHeartbeat().setInterval(heartbeatInterval);
+        } else if (heartbeatIntervalChanged) {
+            getConnection().getHeartbeat().setInterval(originalHeartbeatInterval);
+            heartbeatIntervalChanged = false;
+        }
+    }
+
+    private void busyCountChanged(int busyCount, int busyRetryDelay) {
+        if (busyRetryTimer != null) {
+            busyRetryTimer.cancel();
+            busyRetryTimer = null;
+        }
+        if (busyCount == 0) {
+            handledBusyCount = 0;
+            getWidget().removeStyleName(BUSY_STYLE_NAME);
+            return;
+        }
+        getWidget().addStyleName(BUSY_STYLE_NAME);
+        if (busyCount == handledBusyCount || busyCount > MAX_BUSY_RETRIES) {
+            return;
+        }
+        handledBusyCount = busyCount;
+
+        // exponential back-off with jitter so that rejected clients do not retry in lockstep
+        double delay = busyRetryDelay * Math.pow(2, busyCount - 1) * (0.5 + Math.random());
+        busyRetryTimer = new Timer() {
+            @Override
+            public void run() {
+                busyRetryTimer = null;
+                if (getState().loginOnSubmit) {
+                    // the server does not keep the credentials of a login on submit, so they are posted again
+                    login();
+                } else {
+                    loginFormRpc.loginRetried();
+                }
+            }
+        };
+        busyRetryTimer.schedule((int)delay);
+    }
+
+    private boolean isPushEnabled() {
+        return getConnection().getUIConnector().getState().pushConfiguration.mode.isEnabled();
+    }
+
+    /**
+     * Tells the server about the user name when the field loses the focus or when the user has stopped typing,
+     * so that the server can prepare the login while the password is entered.
+     */
+    private void addPrepareLoginHandlers(VTextField textField, List<HandlerRegistration> registrations) {
+        registrations.add(textField.addBlurHandler(new BlurHandler() {
+            @Override
+            public void onBlur(BlurEvent event) {
+                prepareLogin();
+            }
+        }));
+        registrations.add(textField.addDomHandler(new InputHandler() {
+            @Override
+            public void onInput(InputEvent event) {
+                if (getState().prepareLogin) {
+                    prepareLoginTimer.schedule(PREPARE_LOGIN_DELAY);
+                }
+            }
+        }, InputEvent.getType()));
+    }
+
+    private void prepareLogin() {
+        prepareLoginTimer.cancel();
+        if (!getState().prepareLogin || userField == null) {
+            return;
+        }
+        String userName = userField.getText();
+        if (userName == null || userName.isEmpty() || userName.equals(preparedUserName)) {
+            return;
+        }
+        preparedUserName = userName;
+        loginFormRpc.prepareLogin(userName);
+    }
+
+    private String getElementId(String name) {
+        return name + "-" + getConnectorId();
+    }
+
+    private VTextField configureTextField(Connector connector, String id, List<HandlerRegistration> registrations) {
         if (connector != null) {
             VTextField textField = ((TextFieldConnector)connector).getWidget();
 
-            textField.addKeyDownHandler(new SubmitKeyHandler());
+            registrations.add(textField.addKeyDownHandler(new SubmitKeyHandler()));
+            registrations.add(textField.addDomHandler(new InputHandler() {
+                @Override
+                public void onInput(InputEvent event) {
+                    submitScheduler.valuesChanged();
+                }
+            }, InputEvent.getType()));
 
             Element element = textField.getElement();
             String externalId = element.getId();
             if (externalId == null || externalId.isEmpty() || externalId.startsWith("gwt-")) {
-                element.setId(id);
+                element.setId(getElementId(id));
             }
             element.setAttribute("name", id);
             element.setAttribute("autocomplete", "on");
@@ -116,33 +438,114 @@ public class LoginFormConnector extends AbstractSingleComponentContainerConnecto
         }
     }
 
-    private void loginLater() {
-        Scheduler.get().scheduleFixedDelay(new Scheduler.RepeatingCommand() {
-            @Override
-            public boolean execute() {
-                login();
-                return false;
-            }
-        }, 100);
-    }
-
     private void login() {
+        if (Duration.currentTimeMillis() < throttledUntil) {
+            return;
+        }
+        if (!isValid(userField, getState().userNameValidation) || !isValid(passwordField, getState().passwordValidation)) {
+            return;
+        }
+        markTiming(Phase.SUBMIT);
+        getWidget().setOutcome(null, null);
         getWidget().submit();
     }
 
-    private void addSubmitButtonClickHandler(Connector buttonConnector) {
+    /**
+     * Checks the validation rules of a field before the form is submitted. If the value is invalid, the message
+     * of the rules is shown and the field is focused.
+     */
+    private boolean isValid(VTextField textField, LoginFieldValidation validation) {
+        if (textField == null || validation == null) {
+            return true;
+        }
+        if (isValid(textField.getText(), validation)) {
+            return true;
+        }
+        getWidget().setOutcome(LoginOutcome.FAILURE, validation.message);
+        textField.setFocus(true);
+        return false;
+    }
+
+    static boolean isValid(String value, LoginFieldValidation validation) {
+        return validation.isLengthValid(value) && (!validation.hasPattern(value) || matches(value, validation.pattern));
+    }
+
+    private static native boolean matches(String value, String pattern)/*-{
+        return new RegExp('^(?:' + pattern + ')$').test(value);
+    }-*/;
+
+    private void startTiming(String trigger) {
+        if (getState().reportTimings) {
+            timings = new LoginTimings();
+            timings.trigger = trigger;
+            timingsStart = Duration.currentTimeMillis();
+        } else {
+            timings = null;
+        }
+    }
+
+    private void markTiming(Phase phase) {
+        if (timings == null) {
+            return;
+        }
+        double time = Duration.currentTimeMillis() - timingsStart;
+        switch (phase) {
+            case SUBMIT:
+                timings.submitTime = time;
+                break;
+            case SUBMIT_COMPLETE:
+                timings.submitCompleteTime = time;
+                break;
+            case RPC:
+                timings.rpcTime = time;
+                break;
+            case RESPONSE:
+                timings.responseTime = time;
+                break;
+        }
+    }
+
+    private void awaitResponse() {
+        if (timings == null || responseHandlerRegistration != null) {
+            return;
+        }
+        responseHandlerRegistration = getConnection().addHandler(ApplicationConnection.ResponseHandlingEndedEvent.TYPE,
+                new ApplicationConnection.CommunicationHandler() {
+                    @Override
+                    public void onRequestStarting(ApplicationConnection.RequestStartingEvent e) {
+                    }
+
+                    @Override
+                    public void onResponseHandlingStarted(ApplicationConnection.ResponseHandlingStartedEvent e) {
+                    }
+
+                    @Override
+                    public void onResponseHandlingEnded(ApplicationConnection.ResponseHandlingEndedEvent e) {
+                        responseHandlerRegistration.removeHandler();
+                        responseHandlerRegistration = null;
+                        if (timings != null) {
+                            markTiming(Phase.RESPONSE);
+                            loginFormRpc.timingsReported(timings);
+                            timings = null;
+                        }
+                    }
+                });
+    }
+
+    private void addSubmitButtonClickHandler(Connector buttonConnector, List<HandlerRegistration> registrations) {
         if (buttonConnector instanceof ButtonConnector) {
-            addSubmitButtonClickHandler(((ButtonConnector)buttonConnector).getWidget());
+            registrations.add(addSubmitButtonClickHandler(((ButtonConnector)buttonConnector).getWidget()));
         } else if (buttonConnector instanceof NativeButtonConnector) {
-            addSubmitButtonClickHandler(((NativeButtonConnector)buttonConnector).getWidget());
+            registrations.add(addSubmitButtonClickHandler(((NativeButtonConnector)buttonConnector).getWidget()));
         }
     }
 
-    private void addSubmitButtonClickHandler(FocusWidget button) {
-        button.addClickHandler(new ClickHandler() {
+    private HandlerRegistration addSubmitButtonClickHandler(FocusWidget button) {
+        return button.addClickHandler(new ClickHandler() {
             @Override
             public void onClick(ClickEvent event) {
-                login();
+                startTiming(LoginTimings.TRIGGER_CLICK);
+                submitScheduler.submitNow();
             }
         });
     }
@@ -163,32 +566,23 @@ public class LoginFormConnector extends AbstractSingleComponentContainerConnecto
 
     private class SubmitKeyHandler implements KeyDownHandler {
 
-        private int previousKeyCode;
-
         @Override
         public void onKeyDown(KeyDownEvent event) {
-            int keyCode = event.getNativeKeyCode();
-            if (keyCode == KeyCodes.KEY_ENTER) {
-                if (isInAutoComplete()) {
-                    previousKeyCode = keyCode;
-                } else {
-                    loginLater();
-                }
-            } else {
-                previousKeyCode = keyCode;
+            if (event.getNativeKeyCode() == KeyCodes.KEY_ENTER) {
+                startTiming(LoginTimings.TRIGGER_ENTER);
+                submitScheduler.requestSubmit();
             }
         }
+    }
 
-        private boolean isInAutoComplete() {
-            switch (previousKeyCode) {
-                case KeyCodes.KEY_PAGEUP:
-                case KeyCodes.KEY_PAGEDOWN:
-                case KeyCodes.KEY_UP:
-                case KeyCodes.KEY_DOWN:
-                    return true;
-                default:
-                    return false;
-            }
+    private enum Phase {
+        SUBMIT, SUBMIT_COMPLETE, RPC, RESPONSE
+    }
+
+    private abstract static class ConnectorWiring extends HandlerWiring<Connector, HandlerRegistration> {
+        @Override
+        protected void removeHandler(HandlerRegistration registration) {
+            registration.removeHandler();
         }
     }
 }
@@ -16,8 +16,18 @@
 
 package com.ejt.vaadin.loginform.shared;
 
+import com.vaadin.shared.annotations.Delayed;
 import com.vaadin.shared.communication.ServerRpc;
 
 public interface LoginFormRpc extends ServerRpc {
     void submitCompleted();
+
+    void resultRequested();
+
+    void loginRetried();
+
+    void prepareLogin(String userName);
+
+    @Delayed
+    void timingsReported(LoginTimings timings);
 }
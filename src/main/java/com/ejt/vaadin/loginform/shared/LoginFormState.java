@@ -24,6 +24,15 @@ public class LoginFormState extends AbstractComponentState {
     public Connector userNameFieldConnector;
     public Connector passwordFieldConnector;
     public Connector loginButtonConnector;
+    public boolean loginOnSubmit;
     @DelegateToWidget
-    public String contextPath;
+    public String submitToken;
+    public int submitDelay;
+    public boolean reportTimings;
+    public boolean prepareLogin;
+    public int busyCount;
+    public int busyRetryDelay = 1000;
+    public int preLoginHeartbeatInterval = -1;
+    public LoginFieldValidation userNameValidation;
+    public LoginFieldValidation passwordValidation;
 }
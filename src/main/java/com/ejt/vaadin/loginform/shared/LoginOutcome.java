@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.shared;
+
+/**
+ * The outcome of a login that is sent to the client. Throttled attempts are reported separately with
+ * {@link LoginFormClientRpc#loginThrottled(int)}, because the client needs the time until the next attempt.
+ */
+public enum LoginOutcome {
+
+    /**
+     * The credentials have been accepted.
+     */
+    SUCCESS,
+
+    /**
+     * The credentials have been rejected. The password field is cleared.
+     */
+    FAILURE,
+
+    /**
+     * The login is processed asynchronously. The final outcome is sent when it has completed.
+     */
+    PENDING;
+
+    /**
+     * Returns the style name that is added to the login form on the client while the outcome is shown.
+     *
+     * @return the style name
+     */
+    public String getStyleName() {
+        return "v-loginform-" + name().toLowerCase();
+    }
+}
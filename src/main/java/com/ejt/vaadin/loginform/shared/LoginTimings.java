@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.shared;
+
+import java.io.Serializable;
+
+/**
+ * Client-side timings of a single login in milliseconds. All times are relative to the key press or click that
+ * triggered the login. A value of -1 means that the phase has not been reached.
+ */
+public class LoginTimings implements Serializable {
+    public static final String TRIGGER_ENTER = "enter";
+    public static final String TRIGGER_CLICK = "click";
+
+    public String trigger;
+    public double submitTime = -1;
+    public double submitCompleteTime = -1;
+    public double rpcTime = -1;
+    public double responseTime = -1;
+}
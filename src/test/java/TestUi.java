@@ -18,9 +18,25 @@ public class TestUi extends UI {
         mainLayout.addComponent(loginForm);
         mainLayout.addComponent(new Label("Native login button:"));
         mainLayout.addComponent(new NativeLoginForm());
+        mainLayout.addComponent(new Label("Lite login form:"));
+        mainLayout.addComponent(createLiteLoginForm());
         setContent(mainLayout);
     }
 
+    private LiteLoginForm createLiteLoginForm() {
+        LiteLoginForm loginForm = new LiteLoginForm();
+        loginForm.addLoginListener(new LoginForm.LoginListener() {
+            @Override
+            public void onLogin(LoginForm.LoginEvent event) {
+                mainLayout.addComponent(new Label(
+                        "Logged in with lite form and user name " + event.getUserName() +
+                                " and password of length " + event.getPassword().length()
+                ));
+            }
+        });
+        return loginForm;
+    }
+
     private class SimpleLoginForm extends DefaultHorizontalLoginForm {
 
         public SimpleLoginForm() {
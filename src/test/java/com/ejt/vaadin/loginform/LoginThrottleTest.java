@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoginThrottleTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void burstIsPermittedThenThrottled() {
+        LoginThrottle throttle = new LoginThrottle(3, 1, 100);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, throttle.tryAcquire("user", "10.0.0.1"));
+        }
+        long retryAfterMillis = throttle.tryAcquire("user", "10.0.0.2");
+        assertTrue(retryAfterMillis > 0);
+        assertTrue(retryAfterMillis <= TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    public void addressIsThrottledAcrossUserNames() {
+        LoginThrottle throttle = new LoginThrottle(2, 1, 100);
+        assertEquals(0, throttle.tryAcquire("a", "10.0.0.1"));
+        assertEquals(0, throttle.tryAcquire("b", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("c", "10.0.0.1") > 0);
+    }
+
+    @Test
+    public void releasedAttemptsCanBeRetried() {
+        LoginThrottle throttle = new LoginThrottle(2, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, throttle.tryAcquire("user", "10.0.0.1"));
+            throttle.release("user", "10.0.0.1");
+        }
+        assertEquals(0, throttle.tryAcquire("user", "10.0.0.1"));
+        assertEquals(0, throttle.tryAcquire("user", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("user", "10.0.0.1") > 0);
+    }
+
+    @Test
+    public void releaseDoesNotExceedBurst() {
+        LoginThrottle throttle = new LoginThrottle(2, 1, 100);
+        throttle.release("user", "10.0.0.1");
+        throttle.release("user", "10.0.0.1");
+        assertEquals(0, throttle.tryAcquire("user", "10.0.0.1"));
+        assertEquals(0, throttle.tryAcquire("user", "10.0.0.1"));
+        assertTrue(throttle.tryAcquire("user", "10.0.0.1") > 0);
+    }
+
+    @Test
+    public void floodOfUserNamesDoesNotResetThrottledUser() {
+        LoginThrottle throttle = new LoginThrottle(3, 1, 64);
+        while (throttle.tryAcquire("victim", null) == 0) {
+        }
+        int permitted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (throttle.tryAcquire("flood" + i, null) == 0) {
+                permitted++;
+            }
+        }
+        assertTrue("victim must stay throttled", throttle.tryAcquire("victim", null) > 0);
+        assertTrue("size must be bounded", throttle.size() <= 64);
+        // untracked user names share the overflow buckets of the full stripes
+        assertTrue("flood must be throttled, permitted " + permitted, permitted <= 64 + 4 * 3);
+    }
+
+    @Test
+    public void concurrentAttemptsNeverExceedBurst() throws Exception {
+        final int burst = 50;
+        final LoginThrottle throttle = new LoginThrottle(burst, 0.001, 1000);
+        final AtomicInteger permitted = new AtomicInteger();
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < 10000; i++) {
+                    if (throttle.tryAcquire("user", null) == 0) {
+                        permitted.incrementAndGet();
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(burst, permitted.get());
+    }
+
+    @Test
+    public void concurrentFloodKeepsThrottledUserAndBoundedSize() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(5, 0.001, 256);
+        while (throttle.tryAcquire("victim", null) == 0) {
+        }
+        final AtomicInteger victimPermitted = new AtomicInteger();
+        final AtomicInteger threadIds = new AtomicInteger();
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                int threadId = threadIds.incrementAndGet();
+                for (int i = 0; i < 20000; i++) {
+                    throttle.tryAcquire("flood-" + threadId + "-" + i, "10.1." + threadId + "." + (i & 255));
+                    if (i % 100 == 0 && throttle.tryAcquire("victim", null) == 0) {
+                        victimPermitted.incrementAndGet();
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(0, victimPermitted.get());
+        assertTrue("size must be bounded: " + throttle.size(), throttle.size() <= 2 * 256);
+    }
+
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < THREADS; i++) {
+                final Callable<Void> startingTask = task;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        return startingTask.call();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
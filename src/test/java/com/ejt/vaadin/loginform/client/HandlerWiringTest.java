@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HandlerWiringTest {
+
+    private TestWiring wiring;
+    private int submitCount;
+
+    @Before
+    public void setUp() {
+        wiring = new TestWiring();
+        submitCount = 0;
+    }
+
+    @Test
+    public void repeatedStateChangesWireHandlersOnce() {
+        TestField field = new TestField();
+        assertTrue(wiring.update(field));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(wiring.update(field));
+        }
+
+        assertEquals(1, wiring.getHandlerCount());
+        assertEquals(1, field.handlers.size());
+        field.pressEnter();
+        assertEquals(1, submitCount);
+    }
+
+    @Test
+    public void replacedConnectorIsRewired() {
+        TestField oldField = new TestField();
+        TestField newField = new TestField();
+        wiring.update(oldField);
+        assertTrue(wiring.update(newField));
+
+        assertSame(newField, wiring.getConnector());
+        assertEquals(1, wiring.getHandlerCount());
+        assertEquals(0, oldField.handlers.size());
+        oldField.pressEnter();
+        assertEquals(0, submitCount);
+        newField.pressEnter();
+        assertEquals(1, submitCount);
+    }
+
+    @Test
+    public void removedConnectorIsUnwired() {
+        TestField field = new TestField();
+        wiring.update(field);
+        assertTrue(wiring.update(null));
+
+        assertNull(wiring.getConnector());
+        assertEquals(0, wiring.getHandlerCount());
+        assertEquals(0, field.handlers.size());
+        assertFalse(wiring.update(null));
+    }
+
+    @Test
+    public void clearRemovesHandlersAndAllowsRewiring() {
+        TestField field = new TestField();
+        wiring.update(field);
+        wiring.clear();
+
+        assertEquals(0, wiring.getHandlerCount());
+        assertEquals(0, field.handlers.size());
+        assertTrue(wiring.update(field));
+        field.pressEnter();
+        assertEquals(1, submitCount);
+    }
+
+    private class TestWiring extends HandlerWiring<TestField, Runnable> {
+        @Override
+        protected void addHandlers(TestField field, List<Runnable> registrations) {
+            if (field != null) {
+                registrations.add(field.addHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        submitCount++;
+                    }
+                }));
+            }
+        }
+
+        @Override
+        protected void removeHandler(Runnable registration) {
+            registration.run();
+        }
+    }
+
+    private static class TestField {
+
+        private final List<Runnable> handlers = new ArrayList<Runnable>();
+
+        Runnable addHandler(final Runnable handler) {
+            handlers.add(handler);
+            return new Runnable() {
+                @Override
+                public void run() {
+                    handlers.remove(handler);
+                }
+            };
+        }
+
+        void pressEnter() {
+            for (Runnable handler : new ArrayList<Runnable>(handlers)) {
+                handler.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoginActionTest {
+
+    @Test
+    public void actionIsRelativeToTheServiceUrl() {
+        assertEquals("./loginForm/abc", LoginAction.create("./", "abc", null));
+        assertEquals("./../loginForm/abc", LoginAction.create("./../", "abc", null));
+        assertEquals("/loginForm/abc", LoginAction.create("/", "abc", null));
+    }
+
+    @Test
+    public void servletMappingIsKept() {
+        assertEquals("/context/login/loginForm/abc?v-loginOnSubmit=true",
+                LoginAction.create("/context/login/", "abc", "v-loginOnSubmit=true"));
+        assertEquals("http://example.com/context/login/loginForm",
+                LoginAction.create("http://example.com/context/login", null, null));
+    }
+
+    @Test
+    public void missingServiceUrlResolvesAgainstThePage() {
+        assertEquals("./loginForm", LoginAction.create(null, null, null));
+        assertEquals("./loginForm?v-loginOnSubmit=true", LoginAction.create("", null, "v-loginOnSubmit=true"));
+    }
+}
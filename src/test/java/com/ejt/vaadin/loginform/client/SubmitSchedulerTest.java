@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubmitSchedulerTest {
+
+    private TestHost host;
+    private SubmitScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        host = new TestHost();
+        scheduler = new SubmitScheduler(host);
+    }
+
+    @Test
+    public void enterSubmitsAfterTheEventLoop() {
+        scheduler.requestSubmit();
+
+        assertEquals(0, host.submitCount);
+        assertEquals(1, host.scheduledDelays.size());
+        assertEquals(0, (int)host.scheduledDelays.get(0));
+
+        host.runScheduled();
+        assertEquals(1, host.submitCount);
+        assertFalse(scheduler.isPending());
+    }
+
+    @Test
+    public void enterWaitsForTheSubmitDelay() {
+        scheduler.setSubmitDelay(300);
+        scheduler.requestSubmit();
+
+        assertEquals(300, (int)host.scheduledDelays.get(0));
+        assertEquals(0, host.submitCount);
+        host.runScheduled();
+        assertEquals(1, host.submitCount);
+    }
+
+    @Test
+    public void inputEventCancelsTheSubmission() {
+        scheduler.requestSubmit();
+        scheduler.valuesChanged();
+        host.runScheduled();
+
+        assertEquals(0, host.submitCount);
+        assertFalse(scheduler.isPending());
+    }
+
+    @Test
+    public void changedValuesCancelTheSubmission() {
+        scheduler.requestSubmit();
+        // an auto-completion popup has replaced the user name without an input event
+        host.userName = "completed";
+        host.runScheduled();
+
+        assertEquals(0, host.submitCount);
+    }
+
+    @Test
+    public void repeatedEnterSubmitsOnce() {
+        scheduler.requestSubmit();
+        scheduler.requestSubmit();
+        scheduler.requestSubmit();
+        host.runScheduled();
+
+        assertEquals(1, host.submitCount);
+    }
+
+    @Test
+    public void enterAfterCancellationSubmits() {
+        scheduler.requestSubmit();
+        scheduler.valuesChanged();
+        scheduler.requestSubmit();
+        host.runScheduled();
+
+        assertEquals(1, host.submitCount);
+    }
+
+    @Test
+    public void submitNowReplacesPendingSubmission() {
+        scheduler.requestSubmit();
+        assertTrue(scheduler.isPending());
+
+        scheduler.submitNow();
+        assertEquals(1, host.submitCount);
+
+        host.runScheduled();
+        assertEquals(1, host.submitCount);
+    }
+
+    private static class TestHost implements SubmitScheduler.Host {
+        private String userName = "user";
+        private String password = "password";
+        private int submitCount;
+        private final List<Integer> scheduledDelays = new ArrayList<Integer>();
+        private final List<Runnable> scheduledCommands = new ArrayList<Runnable>();
+
+        @Override
+        public String getUserName() {
+            return userName;
+        }
+
+        @Override
+        public String getPassword() {
+            return password;
+        }
+
+        @Override
+        public void schedule(int delayMillis, Runnable command) {
+            scheduledDelays.add(delayMillis);
+            scheduledCommands.add(command);
+        }
+
+        @Override
+        public void submit() {
+            submitCount++;
+        }
+
+        void runScheduled() {
+            List<Runnable> commands = new ArrayList<Runnable>(scheduledCommands);
+            scheduledCommands.clear();
+            for (Runnable command : commands) {
+                command.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Base64CodecTest {
+
+    @Test
+    public void encodesWithPadding() {
+        assertEquals("", Base64Codec.encode(new byte[0]));
+        assertEquals("Zg==", Base64Codec.encode(bytes("f")));
+        assertEquals("Zm8=", Base64Codec.encode(bytes("fo")));
+        assertEquals("Zm9v", Base64Codec.encode(bytes("foo")));
+        assertEquals("Zm9vYmFy", Base64Codec.encode(bytes("foobar")));
+        assertEquals("//79", Base64Codec.encode(new byte[] {(byte)0xff, (byte)0xfe, (byte)0xfd}));
+    }
+
+    @Test
+    public void decodesWithPadding() {
+        assertArrayEquals(new byte[0], Base64Codec.decode(""));
+        assertArrayEquals(bytes("f"), Base64Codec.decode("Zg=="));
+        assertArrayEquals(bytes("fo"), Base64Codec.decode("Zm8="));
+        assertArrayEquals(bytes("foobar"), Base64Codec.decode("Zm9vYmFy"));
+    }
+
+    @Test
+    public void roundTripsRandomBytes() {
+        Random random = new Random(1);
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            assertArrayEquals(bytes, Base64Codec.decode(Base64Codec.encode(bytes)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCharacters() {
+        Base64Codec.decode("Zm9v$mFy");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLength() {
+        Base64Codec.decode("Zm9");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPaddingInTheMiddle() {
+        Base64Codec.decode("Zg==Zm9v");
+    }
+
+    private static byte[] bytes(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)value.charAt(i);
+        }
+        return bytes;
+    }
+}
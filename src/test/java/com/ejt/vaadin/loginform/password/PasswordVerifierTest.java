@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.password;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PasswordVerifierTest {
+
+    private FakeAlgorithm algorithm;
+    private PasswordVerifier verifier;
+
+    @Before
+    public void setUp() {
+        algorithm = new FakeAlgorithm();
+        verifier = new PasswordVerifier(algorithm, 1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        verifier.shutdown();
+    }
+
+    @Test
+    public void verifiesHashedPassword() {
+        String hash = verifier.hash("secret");
+        assertTrue(hash.startsWith("$fake$" + verifier.getCost() + "$"));
+
+        PasswordVerifier.Verification verification = verifier.verify("secret", hash);
+        assertTrue(verification.matches());
+        assertNull(verification.getUpgradedHash());
+        assertFalse(verifier.verify("wrong", hash).matches());
+    }
+
+    @Test
+    public void upgradesHashWithHalfTheCost() {
+        int cost = verifier.getCost();
+        PasswordVerifier.Verification verification = verifier.verify("secret", storedHash("secret", cost / 2));
+        assertTrue(verification.matches());
+        assertNotNull(verification.getUpgradedHash());
+        assertTrue(verification.getUpgradedHash().startsWith("$fake$" + cost + "$"));
+    }
+
+    @Test
+    public void keepsHashAboveHalfTheCost() {
+        int cost = verifier.getCost();
+        PasswordVerifier.Verification verification = verifier.verify("secret", storedHash("secret", cost * 3 / 4));
+        assertTrue(verification.matches());
+        assertNull(verification.getUpgradedHash());
+    }
+
+    @Test
+    public void doesNotUpgradeWrongPassword() {
+        assertNull(verifier.verify("wrong", storedHash("secret", 1)).getUpgradedHash());
+    }
+
+    @Test
+    public void unknownUserUsesCurrentCostBeforeFirstVerification() {
+        assertFalse(verifier.verify("secret", null).matches());
+        assertEquals(verifier.getCost(), algorithm.lastCost);
+    }
+
+    @Test
+    public void unknownUserUsesCostOfLastStoredHash() {
+        int storedCost = verifier.getCost() * 3 / 4;
+        verifier.verify("secret", storedHash("secret", storedCost));
+
+        PasswordVerifier.Verification verification = verifier.verify("secret", null);
+        assertFalse(verification.matches());
+        assertNull(verification.getUpgradedHash());
+        assertEquals(storedCost, algorithm.lastCost);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownAlgorithm() {
+        verifier.verify("secret", "$unknown$1$AAAA$AAAA");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedHash() {
+        verifier.verify("secret", "secret");
+    }
+
+    private String storedHash(String password, int cost) {
+        byte[] salt = new byte[] {1, 2, 3, 4};
+        return "$fake$" + cost + "$" + Base64Codec.encode(salt) + "$" +
+                Base64Codec.encode(algorithm.hash(password.toCharArray(), salt, cost));
+    }
+
+    /**
+     * Algorithm whose time grows linearly with the cost, but that calibrates to a short target time quickly.
+     */
+    private static class FakeAlgorithm implements PasswordHashAlgorithm {
+
+        private volatile int lastCost;
+
+        @Override
+        public String getId() {
+            return "fake";
+        }
+
+        @Override
+        public int getMinimumCost() {
+            return 1;
+        }
+
+        @Override
+        public byte[] hash(char[] password, byte[] salt, int cost) {
+            lastCost = cost;
+            int state = 17;
+            for (byte b : salt) {
+                state = state * 31 + b;
+            }
+            for (char c : password) {
+                state = state * 31 + c;
+            }
+            for (int i = 0; i < cost; i++) {
+                state = state * 1103515245 + 12345;
+            }
+            return new byte[] {(byte)(state >>> 24), (byte)(state >>> 16), (byte)(state >>> 8), (byte)state};
+        }
+    }
+}
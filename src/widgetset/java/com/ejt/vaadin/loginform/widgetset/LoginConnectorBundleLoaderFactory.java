@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Ingo Kegel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ejt.vaadin.loginform.widgetset;
+
+import com.google.gwt.core.ext.typeinfo.JClassType;
+import com.vaadin.server.widgetsetutils.ConnectorBundleLoaderFactory;
+import com.vaadin.shared.ui.Connect.LoadStyle;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Connector bundle generator for the login widget set. Only the connectors that are needed to show a login form
+ * are loaded eagerly, all other connectors are moved to the deferred bundle that is downloaded after the
+ * initial rendering.
+ * <p/>
+ * If your login page uses other components, extend this class, add their connector class names to
+ * {@link #eagerConnectors} in the constructor and reference your subclass in your own widget set module.
+ */
+public class LoginConnectorBundleLoaderFactory extends ConnectorBundleLoaderFactory {
+
+    /**
+     * Fully qualified class names of the connectors that are loaded eagerly.
+     */
+    protected final Set<String> eagerConnectors = new HashSet<String>();
+
+    public LoginConnectorBundleLoaderFactory() {
+        eagerConnectors.add("com.ejt.vaadin.loginform.shared.LoginFormConnector");
+        eagerConnectors.add("com.ejt.vaadin.loginform.shared.LiteLoginFormConnector");
+        eagerConnectors.add("com.vaadin.client.ui.ui.UIConnector");
+        eagerConnectors.add("com.vaadin.client.ui.UnknownComponentConnector");
+        eagerConnectors.add("com.vaadin.client.ui.orderedlayout.VerticalLayoutConnector");
+        eagerConnectors.add("com.vaadin.client.ui.orderedlayout.HorizontalLayoutConnector");
+        eagerConnectors.add("com.vaadin.client.ui.csslayout.CssLayoutConnector");
+        eagerConnectors.add("com.vaadin.client.ui.formlayout.FormLayoutConnector");
+        eagerConnectors.add("com.vaadin.client.ui.textfield.TextFieldConnector");
+        eagerConnectors.add("com.vaadin.client.ui.passwordfield.PasswordFieldConnector");
+        eagerConnectors.add("com.vaadin.client.ui.button.ButtonConnector");
+        eagerConnectors.add("com.vaadin.client.ui.nativebutton.NativeButtonConnector");
+        eagerConnectors.add("com.vaadin.client.ui.label.LabelConnector");
+    }
+
+    @Override
+    protected LoadStyle getLoadStyle(JClassType connectorType) {
+        if (eagerConnectors.contains(connectorType.getQualifiedSourceName())) {
+            return LoadStyle.EAGER;
+        } else {
+            return LoadStyle.DEFERRED;
+        }
+    }
+}